@@ -1,6 +1,8 @@
 package main.auth;
 
+import main.model.LibraryJournal;
 import main.model.LibraryModel;
+import main.model.PersistenceService;
 import main.database.MusicStore;
 import java.io.*;
 
@@ -9,18 +11,28 @@ public class User implements Serializable {
     private String username;
     private String salt;
     private String hashedPassword;
+    // Loaded on first use and dropped again by unloadLibrary; null while not loaded
     private LibraryModel library;
+    // Records library changes as they happen; set whenever library is
+    private transient LibraryJournal journal;
+    private transient MusicStore musicStore;
+    private transient PersistenceService persistence;
+    // Directory holding the library files (null for the working directory)
+    private transient File directory;
 
     public User(String username, String salt, String hashedPassword, MusicStore musicStore) {
+        this(username, salt, hashedPassword, musicStore, null, null);
+    }
+
+    // With a persistence service, library changes are forced to disk in the background.
+    public User(String username, String salt, String hashedPassword, MusicStore musicStore,
+                PersistenceService persistence, File directory) {
         this.username = username;
         this.salt = salt;
         this.hashedPassword = hashedPassword;
-        LibraryModel loadedLibrary = loadLibraryData(musicStore);
-        if (loadedLibrary != null) {
-            this.library = loadedLibrary;
-        } else {
-            this.library = new LibraryModel(musicStore);
-        }
+        this.musicStore = musicStore;
+        this.persistence = persistence;
+        this.directory = directory;
     }
 
     public String getUsername() {
@@ -35,20 +47,80 @@ public class User implements Serializable {
         return hashedPassword;
     }
 
+    // Returns the library, reading it from disk the first time (or the first time after unloadLibrary).
+    // Every session of the user gets this same LibraryModel, which is not thread-safe: callers that serve
+    // sessions of one user on several threads must synchronize on the returned library.
+    // Throws UncheckedIOException if the library cannot be read; see loadLibrary.
     public LibraryModel getLibrary() {
+        try {
+            return loadLibrary();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Same as getLibrary, reporting a library that cannot be read as an IOException. Nothing is loaded
+    // then, so a damaged library file is never replaced by an empty library on the next save.
+    public synchronized LibraryModel loadLibrary() throws IOException {
+        if (library == null) {
+            LibraryJournal opened = openJournal(musicStore);
+            opened.setPersistence(persistence);
+            this.journal = opened;
+            this.library = opened.getLibrary();
+        }
         return library;
     }
 
-    public void saveLibraryData() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("library_" + username + ".ser"))) {
-            oos.writeObject(library);
+    public synchronized boolean isLibraryLoaded() {
+        return library != null;
+    }
+
+    // Saves the library and releases it; it is read again on next use.
+    public synchronized void unloadLibrary() {
+        if (library == null) {
+            return;
+        }
+        try {
+            journal.close();
         } catch (IOException e) {
             System.err.println("Error saving library data for user " + username + ": " + e.getMessage());
         }
+        journal = null;
+        library = null;
     }
 
-    private LibraryModel loadLibraryData(MusicStore musicStore) {
-        File file = new File("library_" + username + ".ser");
+    // Changes are already in the journal; saving only forces it to disk, so the cost follows the
+    // number of changes rather than the library size.
+    public synchronized void saveLibraryData() {
+        if (library == null) {
+            return;
+        }
+        try {
+            journal.sync();
+        } catch (IOException e) {
+            System.err.println("Error saving library data for user " + username + ": " + e.getMessage());
+        }
+    }
+
+    private String basePath() {
+        return new File(directory, "library_" + username).getPath();
+    }
+
+    // Opens the library snapshot and journal. A library saved with Java serialization by older
+    // versions is migrated into a snapshot the first time.
+    private LibraryJournal openJournal(MusicStore musicStore) throws IOException {
+        boolean current = new File(basePath() + ".lib").exists() || new File(basePath() + ".journal").exists();
+        LibraryModel legacy = current ? null : loadLegacyLibrary(musicStore);
+        if (legacy != null) {
+            return LibraryJournal.create(legacy, basePath());
+        }
+        return LibraryJournal.open(basePath(), musicStore);
+    }
+
+    // Null if there is no old library; throws if there is one that cannot be read, so it is not
+    // hidden behind a new empty library.
+    private LibraryModel loadLegacyLibrary(MusicStore musicStore) throws IOException {
+        File file = new File(basePath() + ".ser");
         if (!file.exists()) {
             return null;
         }
@@ -56,9 +128,8 @@ public class User implements Serializable {
             LibraryModel loaded = (LibraryModel) ois.readObject();
             loaded.setMusicStore(musicStore);
             return loaded;
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error loading library data for user " + username + ": " + e.getMessage());
-            return null;
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Not a library file: " + file, e);
         }
     }
 }
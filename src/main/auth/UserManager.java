@@ -6,17 +6,57 @@ import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.*;
 import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import main.database.MusicStore;
+import main.model.PersistenceService;
 
+// Loading users.txt only reads credentials; a user's library is read on their first successful login.
+// Libraries of logged-in users stay loaded. After the last session of a user logs out their library
+// joins an LRU set of idle libraries, and the least recently used ones beyond idleLibraries are
+// saved and dropped, so memory follows the active sessions rather than the number of accounts.
+//
+// Safe for concurrent use. Accounts live in a ConcurrentHashMap and signUp claims a name with an atomic
+// putIfAbsent; password hashing and library loading run outside any shared lock, and each User guards
+// its own library. Only the session/idle bookkeeping (a few map operations) is under the manager lock.
 public class UserManager {
-    private Map<String, User> users;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private final ConcurrentHashMap<String, User> users;
     private MusicStore musicStore;
-    private final String userFilePath = "users.txt";
+    private final File directory; // Holds users.txt and the library files (null: working directory)
+    private final UserRegistry registry;
+    // Library changes are forced to disk at most this often, this many libraries per pass
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final int FLUSH_BATCH_SIZE = 16;
+    private static final int DEFAULT_IDLE_LIBRARIES = 32;
+    private final PersistenceService persistence;
+    private final int idleLibraries;
+    // Username -> open sessions, for users who are logged in
+    private final Map<String, Integer> sessions;
+    // Logged-out users whose library is still loaded, least recently used first
+    private final LinkedHashMap<String, User> idle;
 
     public UserManager(MusicStore musicStore) {
+        this(musicStore, null, DEFAULT_IDLE_LIBRARIES);
+    }
+
+    // Keeps users.txt and the libraries in directory and at most idleLibraries idle libraries loaded.
+    public UserManager(MusicStore musicStore, File directory, int idleLibraries) {
+        if (idleLibraries < 0) {
+            throw new IllegalArgumentException("Idle library count cannot be negative.");
+        }
         this.musicStore = musicStore;
-        users = new HashMap<>();
+        this.directory = directory;
+        this.registry = new UserRegistry(new File(directory, "users.txt").toPath());
+        this.idleLibraries = idleLibraries;
+        users = new ConcurrentHashMap<>();
+        sessions = new HashMap<>();
+        idle = new LinkedHashMap<>(16, 0.75f, true);
+        persistence = new PersistenceService(FLUSH_INTERVAL_MILLIS, FLUSH_BATCH_SIZE);
         loadUsers();
     }
 
@@ -32,63 +72,187 @@ public class UserManager {
     }
 
     private String generateSalt() {
-        SecureRandom random = new SecureRandom();
         byte[] saltBytes = new byte[16];
-        random.nextBytes(saltBytes);
+        RANDOM.nextBytes(saltBytes);
         return Base64.getEncoder().encodeToString(saltBytes);
     }
 
+    // Creates the account unless the name is taken; of several concurrent signups for one name exactly
+    // one succeeds. Returns false, creating nothing, if the account cannot be saved.
     public boolean signUp(String username, String password) {
         if(users.containsKey(username)) {
             return false;
         }
         String salt = generateSalt();
         String hashed = hashPassword(password, salt);
-        User newUser = new User(username, salt, hashed, musicStore);
-        users.put(username, newUser);
-        saveUsers();
+        User newUser = new User(username, salt, hashed, musicStore, persistence, directory);
+        if(users.putIfAbsent(username, newUser) != null) {
+            return false;
+        }
+        try {
+            registry.append(username, salt, hashed);
+        } catch(IOException e) {
+            e.printStackTrace();
+            users.remove(username, newUser);
+            return false;
+        }
         return true;
     }
 
-    public User login(String username, String password) {
+    // Returns the user, or null if the name or password is wrong. Throws IOException (and opens no
+    // session) if the user's library cannot be read. Concurrent sessions of one user share one
+    // LibraryModel; see User.getLibrary.
+    public User login(String username, String password) throws IOException {
         User user = users.get(username);
         if(user == null) {
             return null;
         }
         String hashed = hashPassword(password, user.getSalt());
         if(hashed.equals(user.getHashedPassword())) {
+            synchronized (this) {
+                sessions.merge(username, 1, Integer::sum);
+                idle.remove(username);
+            }
+            try {
+                user.loadLibrary();
+            } catch (IOException e) {
+                synchronized (this) {
+                    sessions.computeIfPresent(username, (name, open) -> open > 1 ? open - 1 : null);
+                }
+                throw e;
+            }
             return user;
         }
         return null;
     }
 
-    private void loadUsers() {
-        File file = new File(userFilePath);
-        if(!file.exists()) {
-            return;
-        }
-        try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-            String line;
-            while((line = br.readLine()) != null) {
-                String[] parts = line.split(",");
-                if(parts.length != 3) continue;
-                String username = parts[0];
-                String salt = parts[1];
-                String hashed = parts[2];
-                User user = new User(username, salt, hashed, musicStore);
-                users.put(username, user);
+    // Ends one session of the user. Once none are left the library may be unloaded to make room.
+    public void logout(User user) {
+        List<User> evicted;
+        synchronized (this) {
+            Integer open = sessions.get(user.getUsername());
+            if (open == null) {
+                return;
             }
-        } catch(IOException e) {
-            e.printStackTrace();
+            if (open > 1) {
+                sessions.put(user.getUsername(), open - 1);
+                return;
+            }
+            sessions.remove(user.getUsername());
+            evicted = makeIdle(user);
+        }
+        unload(evicted);
+    }
+
+    // Loads the libraries of the given users on threads threads, e.g. the accounts expected to log in
+    // first. Users that are not logged in count as idle, so at most idleLibraries of them stay loaded.
+    public void prewarm(Collection<String> usernames, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1.");
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> loads = new ArrayList<>();
+            for (String username : usernames) {
+                User user = users.get(username);
+                if (user != null) {
+                    loads.add(pool.submit(() -> {
+                        user.loadLibrary();
+                        List<User> evicted;
+                        synchronized (this) {
+                            evicted = sessions.containsKey(username) ? Collections.emptyList() : makeIdle(user);
+                        }
+                        unload(evicted);
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> load : loads) {
+                try {
+                    load.get();
+                } catch (ExecutionException e) {
+                    // That user's library stays unloaded, and their login reports the error
+                    System.err.println("Error loading library data: " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
         }
     }
 
-    private void saveUsers() {
-        try (BufferedWriter bw = new BufferedWriter(new FileWriter(userFilePath))) {
-            for(User user : users.values()) {
-                String line = user.getUsername() + "," + user.getSalt() + "," + user.getHashedPassword();
-                bw.write(line);
-                bw.newLine();
+    // Number of libraries currently in memory.
+    public int getLoadedLibraryCount() {
+        List<User> all;
+        synchronized (this) {
+            all = new ArrayList<>(users.values());
+        }
+        int loaded = 0;
+        for (User user : all) {
+            if (user.isLibraryLoaded()) {
+                loaded++;
+            }
+        }
+        return loaded;
+    }
+
+    // Adds the user to the idle set and returns the users pushed out of it. Caller holds the lock.
+    private List<User> makeIdle(User user) {
+        idle.put(user.getUsername(), user);
+        List<User> evicted = new ArrayList<>();
+        Iterator<User> eldest = idle.values().iterator();
+        while (idle.size() > idleLibraries) {
+            evicted.add(eldest.next());
+            eldest.remove();
+        }
+        return evicted;
+    }
+
+    // Unloads outside the manager lock, since saving a library does disk I/O. Holding the user's lock
+    // while checking makes a login that raced with the eviction either keep the library or reload it.
+    private void unload(List<User> evicted) {
+        for (User user : evicted) {
+            synchronized (user) {
+                if (!isInUse(user)) {
+                    user.unloadLibrary();
+                }
+            }
+        }
+    }
+
+    private synchronized boolean isInUse(User user) {
+        return sessions.containsKey(user.getUsername()) || idle.containsKey(user.getUsername());
+    }
+
+    // Saves and unloads every library, then stops the background writer.
+    public void close() {
+        List<User> loaded;
+        synchronized (this) {
+            loaded = new ArrayList<>(users.values());
+            sessions.clear();
+            idle.clear();
+        }
+        unload(loaded);
+        try {
+            try {
+                registry.close();
+            } finally {
+                persistence.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving library data: " + e.getMessage());
+        }
+    }
+
+    private void loadUsers() {
+        try {
+            for(Map.Entry<String, String[]> record : registry.open().entrySet()) {
+                String username = record.getKey();
+                String salt = record.getValue()[0];
+                String hashed = record.getValue()[1];
+                User user = new User(username, salt, hashed, musicStore, persistence, directory);
+                users.put(username, user);
             }
         } catch(IOException e) {
             e.printStackTrace();
@@ -0,0 +1,270 @@
+package main.auth;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Append-only credential log (users.txt): one "username,salt,hash" line per record, a later line for
+// the same username replacing the earlier one. Signing up appends and forces one line, so it costs the
+// same however many accounts exist. A last line without its newline is kept (and the newline added) if it
+// holds a whole record, and cut off if a crash tore it mid-append. Once enough lines are dead (torn,
+// malformed, replaced or left by a failed append), whether found on open or while running, the log is
+// rewritten to a temp file and renamed over the old one.
+//
+// Concurrent appends are group-committed: each writer appends its line under the write lock, then one
+// fsync covers every line written before it, so simultaneous signups share disk flushes.
+class UserRegistry {
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int COMPACT_DEAD_LINES = 1000;
+    private static final int HASH_BYTES = 32; // SHA-256, see UserManager.hashPassword
+
+    private final Path path;
+    private FileChannel channel;
+    // Live records, which compaction writes out; guarded by this
+    private final Map<String, String[]> records = new LinkedHashMap<>();
+    private int deadLines; // Lines replay skipped, lines a later line replaced and partial appends
+    private boolean unterminated; // A failed append left part of a line that could not be cut off
+    private final Object forceLock = new Object();
+    private long written; // Lines appended so far, guarded by this
+    private long forced; // Lines known to be on disk, guarded by forceLock
+
+    UserRegistry(Path path) {
+        this.path = path;
+    }
+
+    // Replays the log and opens it for appending. Returns a copy of username -> {salt, hash}, in
+    // first-seen order. If this throws the registry stays closed, and append fails with an IOException.
+    synchronized Map<String, String[]> open() throws IOException {
+        long end = 0;
+        if (Files.isRegularFile(path)) {
+            end = replay();
+        }
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (end < channel.size()) {
+                // Drop the torn last line so the next record starts on a line of its own
+                channel.truncate(end);
+                channel.force(false);
+                deadLines++;
+            }
+            channel.position(end);
+            if (end > 0 && !endsWithNewline(end)) {
+                // The last line was whole but had no newline; give it one before anything is appended
+                write(ByteBuffer.wrap(new byte[] {'\n'}));
+                channel.force(false);
+            }
+            if (deadLines >= COMPACT_DEAD_LINES) {
+                compact();
+            }
+        } catch (IOException e) {
+            channel.close();
+            channel = null;
+            throw e;
+        }
+        return new LinkedHashMap<>(records);
+    }
+
+    // Appends one record and returns once it is on disk. If this throws, the record may or may not
+    // have reached the disk.
+    void append(String username, String salt, String hash) throws IOException {
+        boolean due;
+        synchronized (this) {
+            due = channel != null && deadLines >= COMPACT_DEAD_LINES;
+        }
+        if (due) {
+            // Takes forceLock only then, so appends do not otherwise wait for each other's fsync
+            synchronized (forceLock) {
+                synchronized (this) {
+                    if (deadLines >= COMPACT_DEAD_LINES) {
+                        compact(); // Every record written so far is in the new file, already forced
+                        forced = written;
+                    }
+                }
+            }
+        }
+        ByteBuffer line = ByteBuffer.wrap(line(username, salt, hash));
+        long mine;
+        synchronized (this) {
+            if (channel == null) {
+                throw new IOException("User registry " + path + " is not open");
+            }
+            long start = channel.position();
+            try {
+                if (unterminated) {
+                    write(ByteBuffer.wrap(new byte[] {'\n'}));
+                    unterminated = false;
+                }
+                write(line);
+            } catch (IOException e) {
+                discardFrom(start, e);
+                throw e;
+            }
+            if (records.put(username, new String[] {salt, hash}) != null) {
+                deadLines++;
+            }
+            mine = ++written;
+        }
+        synchronized (forceLock) {
+            if (forced >= mine) {
+                return; // Another writer's fsync already covered this line
+            }
+            long upTo;
+            synchronized (this) {
+                upTo = written;
+            }
+            channel.force(false);
+            forced = upTo;
+        }
+    }
+
+    // Rewrites the log with one line per live record: temp file, force, atomic rename. Caller holds this,
+    // and forceLock once appends may be running, so no fsync of the old channel is under way when it closes.
+    private void compact() throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+            for (Map.Entry<String, String[]> record : records.entrySet()) {
+                byte[] line = line(record.getKey(), record.getValue()[0], record.getValue()[1]);
+                if (buffer.remaining() < line.length) {
+                    drain(buffer, out);
+                }
+                if (line.length > buffer.capacity()) {
+                    out.write(ByteBuffer.wrap(line));
+                } else {
+                    buffer.put(line);
+                }
+            }
+            drain(buffer, out);
+            out.force(true);
+        }
+        channel.close();
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        deadLines = 0;
+        unterminated = false;
+    }
+
+    synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    // Reads the log in large chunks and returns the offset just past the last record kept: the last
+    // complete line, or the end of the file if the bytes after it form a whole record.
+    private long replay() throws IOException {
+        long end = 0;
+        long offset = 0;
+        ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (in.read(buffer) > 0) {
+                buffer.flip();
+                byte[] bytes = buffer.array();
+                int start = 0;
+                for (int i = 0; i < buffer.limit(); i++) {
+                    if (bytes[i] == '\n') {
+                        pending.write(bytes, start, i - start);
+                        apply(pending.toString(StandardCharsets.UTF_8.name()));
+                        pending.reset();
+                        start = i + 1;
+                        end = offset + start;
+                    }
+                }
+                pending.write(bytes, start, buffer.limit() - start);
+                offset += buffer.limit();
+                buffer.clear();
+            }
+        }
+        if (pending.size() > 0) {
+            // No newline at the end: a file edited by hand, or an append torn by a crash. Only a line
+            // whose hash has its full length can be the former.
+            String[] parts = parse(pending.toString(StandardCharsets.UTF_8.name()));
+            if (parts != null && isWholeHash(parts[2])) {
+                put(parts);
+                end = offset;
+            }
+        }
+        return end;
+    }
+
+    private void apply(String line) {
+        String[] parts = parse(line);
+        if (parts == null) {
+            deadLines++;
+            return;
+        }
+        put(parts);
+    }
+
+    private void put(String[] parts) {
+        if (records.put(parts[0], new String[] {parts[1], parts[2]}) != null) {
+            deadLines++;
+        }
+    }
+
+    // {username, salt, hash}, or null if the line is malformed.
+    private static String[] parse(String line) {
+        if (line.endsWith("\r")) {
+            line = line.substring(0, line.length() - 1); // Written on Windows by older versions
+        }
+        String[] parts = line.split(",");
+        return parts.length == 3 ? parts : null;
+    }
+
+    private static boolean isWholeHash(String hash) {
+        try {
+            return Base64.getDecoder().decode(hash).length == HASH_BYTES;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private boolean endsWithNewline(long end) throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        channel.read(last, end - 1);
+        return last.get(0) == '\n';
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    // Cuts off what a failed append wrote. If even that fails, the partial line is left as a dead line
+    // and the next append starts on a new line.
+    private void discardFrom(long start, IOException cause) {
+        try {
+            channel.truncate(start);
+            channel.position(start);
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+            unterminated = true;
+            deadLines++;
+        }
+    }
+
+    private static byte[] line(String username, String salt, String hash) {
+        return (username + "," + salt + "," + hash + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void drain(ByteBuffer buffer, FileChannel out) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+}
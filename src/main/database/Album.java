@@ -1,23 +1,53 @@
 package main.database;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 public class Album implements Serializable {
     private static final long serialVersionUID = 1L;
-    private final String title;
-    private final String artist;
-    private final String genre;
-    private final int year;
-    private final List<Song> songs;
+    // Keeps the serialized form in terms of strings, as before the symbol table was introduced
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("title", String.class),
+            new ObjectStreamField("artist", String.class),
+            new ObjectStreamField("genre", String.class),
+            new ObjectStreamField("year", int.class),
+            new ObjectStreamField("songs", List.class)
+    };
+    private String title;
+    // Symbol table ids (see SymbolTable.catalog())
+    private int artistId;
+    private int genreId;
+    private int year;
+    private List<Song> songs;
+    // Dense id from the MusicStore that registered the album (-1 if none), see MusicStore.getAlbum(int)
+    private transient int id;
 
     public Album(String title, String artist, String genre, int year) {
+        SymbolTable symbols = SymbolTable.catalog();
         this.title = title;
-        this.artist = artist;
-        this.genre = genre;
+        this.artistId = symbols.intern(artist);
+        this.genreId = symbols.intern(genre);
         this.year = year;
         this.songs = new ArrayList<>();
+        this.id = -1;
+    }
+
+    // Id in the MusicStore that registered this album, or -1 if no store has.
+    public int getId() {
+        return id;
+    }
+
+    // Called by MusicStore on registration; an album registered in several stores keeps the first id.
+    void assignId(int id) {
+        if (this.id < 0) {
+            this.id = id;
+        }
     }
 
     public String getTitle() {
@@ -25,22 +55,87 @@ public class Album implements Serializable {
     }
 
     public String getArtist() {
-        return artist;
+        return SymbolTable.catalog().lookup(artistId);
     }
 
     public String getGenre() {
-        return genre;
+        return SymbolTable.catalog().lookup(genreId);
     }
 
     public int getYear() {
         return year;
     }
 
+    // Appends a track; a song of this album takes the next track number.
     public void addSong(Song song) {
+        if (song.getAlbum() == this) {
+            song.assignTrack(songs.size());
+        }
         songs.add(song);
     }
 
+    // Adds a song of this album with a known track number, keeping the list in track order. For
+    // albums rebuilt from a saved library, which may hold only some of the tracks.
+    public void addSong(Song song, int track) {
+        if (song.getAlbum() != this || track < 0) {
+            throw new IllegalArgumentException("Not a track of this album.");
+        }
+        song.assignTrack(track);
+        int at = songs.size();
+        while (at > 0 && songs.get(at - 1).getTrack() > track) {
+            at--;
+        }
+        songs.add(at, song);
+    }
+
+    // Read-only live view of the tracks, in order.
     public List<Song> getSongs() {
-        return new ArrayList<>(songs);
+        return Collections.unmodifiableList(songs);
+    }
+
+    // The track list itself; null while the album is being deserialized.
+    List<Song> tracks() {
+        return songs;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("title", title);
+        fields.put("artist", getArtist());
+        fields.put("genre", getGenre());
+        fields.put("year", year);
+        fields.put("songs", songs);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        SymbolTable symbols = SymbolTable.catalog();
+        this.title = (String) fields.get("title", null);
+        this.artistId = symbols.intern((String) fields.get("artist", null));
+        this.genreId = symbols.intern((String) fields.get("genre", null));
+        this.year = fields.get("year", 0);
+        this.songs = (List<Song>) fields.get("songs", null);
+        this.id = -1;
+    }
+
+    // Albums with the same title and artist are the same catalog album. Both are fixed at construction,
+    // so the hash never changes; artists compare by their interned symbol id.
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Album)) {
+            return false;
+        }
+        Album other = (Album) o;
+        return artistId == other.artistId && title != null && title.equals(other.title);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (title == null ? 0 : title.hashCode()) + artistId;
     }
 }
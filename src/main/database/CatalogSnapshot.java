@@ -0,0 +1,175 @@
+package main.database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compiled, binary form of the text catalog so MusicStore can start without re-parsing every album file.
+//
+// Layout (all ints big-endian):
+//   header        magic, version, fingerprint (long), stringCount, albumCount, songCount
+//   album records title, artist, genre, year, firstSong, songCount   (string table indexes for text)
+//   song records  title, album
+//   string table  byte length + UTF-8 bytes, one entry per distinct string
+public class CatalogSnapshot {
+    private static final int MAGIC = 0x4D534353; // "MSCS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4 + 4;
+    private static final int ALBUM_RECORD_BYTES = 6 * 4;
+    private static final int SONG_RECORD_BYTES = 2 * 4;
+
+    // Combines path, size and modification time of every source file; any edit changes the result.
+    public static long fingerprint(List<String> sourceFiles) {
+        long hash = 1125899906842597L;
+        for (String path : sourceFiles) {
+            File file = new File(path);
+            hash = 31 * hash + path.hashCode();
+            hash = 31 * hash + file.length();
+            hash = 31 * hash + file.lastModified();
+        }
+        return hash;
+    }
+
+    // Writes the albums (and their songs, in track order) to a temp file and renames it into place.
+    public static void write(List<Album> albums, long fingerprint, String snapshotPath) throws IOException {
+        List<String> strings = new ArrayList<>();
+        Map<String, Integer> stringIds = new HashMap<>();
+        int songCount = 0;
+        for (Album album : albums) {
+            intern(album.getTitle(), strings, stringIds);
+            intern(album.getArtist(), strings, stringIds);
+            intern(album.getGenre(), strings, stringIds);
+            for (Song song : album.getSongs()) {
+                intern(song.getTitle(), strings, stringIds);
+                songCount++;
+            }
+        }
+
+        List<byte[]> encoded = new ArrayList<>();
+        int stringBytes = 0;
+        for (String s : strings) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            stringBytes += 4 + bytes.length;
+        }
+
+        int size = HEADER_BYTES + albums.size() * ALBUM_RECORD_BYTES + songCount * SONG_RECORD_BYTES + stringBytes;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(fingerprint)
+                .putInt(strings.size()).putInt(albums.size()).putInt(songCount);
+        int firstSong = 0;
+        for (Album album : albums) {
+            int tracks = album.getSongs().size();
+            buffer.putInt(stringIds.get(album.getTitle()))
+                    .putInt(stringIds.get(album.getArtist()))
+                    .putInt(stringIds.get(album.getGenre()))
+                    .putInt(album.getYear())
+                    .putInt(firstSong)
+                    .putInt(tracks);
+            firstSong += tracks;
+        }
+        for (int i = 0; i < albums.size(); i++) {
+            for (Song song : albums.get(i).getSongs()) {
+                buffer.putInt(stringIds.get(song.getTitle())).putInt(i);
+            }
+        }
+        for (byte[] bytes : encoded) {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+        buffer.flip();
+
+        Path target = Paths.get(snapshotPath).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Maps the snapshot into memory and rebuilds the albums. Returns null if the file is missing,
+    // was built from different source files, or is not a snapshot this version understands. Counts
+    // and lengths are checked against the file size before anything is allocated for them.
+    public static List<Album> read(String snapshotPath, long expectedFingerprint) throws IOException {
+        Path path = Paths.get(snapshotPath);
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getLong() != expectedFingerprint) {
+                return null;
+            }
+            int stringCount = buffer.getInt();
+            int albumCount = buffer.getInt();
+            int songCount = buffer.getInt();
+            long records = (long) albumCount * ALBUM_RECORD_BYTES + (long) songCount * SONG_RECORD_BYTES;
+            if (stringCount < 0 || albumCount < 0 || songCount < 0
+                    || HEADER_BYTES + records + (long) stringCount * 4 > channel.size()) {
+                return null; // More entries than the file can hold
+            }
+
+            // Decode the string table first; it sits after the fixed-width records.
+            ByteBuffer table = buffer.duplicate();
+            table.position(HEADER_BYTES + albumCount * ALBUM_RECORD_BYTES + songCount * SONG_RECORD_BYTES);
+            String[] strings = new String[stringCount];
+            for (int i = 0; i < stringCount; i++) {
+                int length = table.getInt();
+                if (length < 0 || length > table.remaining()) {
+                    return null;
+                }
+                byte[] bytes = new byte[length];
+                table.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            List<Album> albums = new ArrayList<>(albumCount);
+            for (int i = 0; i < albumCount; i++) {
+                String title = strings[buffer.getInt()];
+                String artist = strings[buffer.getInt()];
+                String genre = strings[buffer.getInt()];
+                int year = buffer.getInt();
+                // firstSong/songCount allow random access to one album's tracks; a full load
+                // walks the song records in order instead.
+                buffer.getInt();
+                buffer.getInt();
+                albums.add(new Album(title, artist, genre, year));
+            }
+            for (int i = 0; i < songCount; i++) {
+                String title = strings[buffer.getInt()];
+                Album album = albums.get(buffer.getInt());
+                album.addSong(new Song(title, album));
+            }
+            return albums;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            // Truncated or corrupt snapshot; the caller rebuilds it from the text files
+            return null;
+        }
+    }
+
+    private static void intern(String s, List<String> strings, Map<String, Integer> stringIds) {
+        if (!stringIds.containsKey(s)) {
+            stringIds.put(s, strings.size());
+            strings.add(s);
+        }
+    }
+}
@@ -3,21 +3,407 @@ package main.database;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 public class MusicStore {
     private Map<String, Album> albums;
     private Map<String, List<Song>> songs;
+    // Every registered song, for constant-time membership checks
+    private Set<Song> songSet;
+    // Normalized (case-folded, accent-stripped) title -> every song with that title across albums
+    private Map<String, List<Song>> songsByNormalizedTitle;
+    // Secondary indexes keyed by normalized artist / genre
+    private Map<String, List<Album>> albumsByArtist;
+    private Map<String, List<Song>> songsByArtist;
+    private Map<String, List<Album>> albumsByGenre;
+    // Phase name -> elapsed milliseconds for the most recent load
+    private Map<String, Long> loadTimings;
+    // Token index used to answer title/artist/genre queries without scanning the catalog
+    private SearchIndex searchIndex;
+    // Lazy mode only (null otherwise): every albums.txt entry, the same entries keyed by normalized
+    // title / artist / genre / song title and by search token, and the size-bounded, access-ordered
+    // set of albums currently parsed into the store. Posting lists are in index order.
+    //
+    // The entry indexes are fixed once loadAlbumIndex returns. Everything else changes as albums are
+    // parsed and evicted (even a get reorders residentAlbums), so in lazy mode every path that parses,
+    // evicts or reads the store's maps holds the store's lock; libraries loading on several threads
+    // can share one store. A fully loaded store is only read after loading and takes no lock there.
+    private List<AlbumRef> albumRefs;
+    private Map<String, List<AlbumRef>> refsByTitle;
+    private Map<String, List<AlbumRef>> refsByArtist;
+    private Map<String, List<AlbumRef>> refsByGenre;
+    private Map<String, List<AlbumRef>> refsBySongTitle;
+    private TreeMap<String, List<AlbumRef>> refsByAlbumToken; // Album title, artist and genre words
+    private TreeMap<String, List<AlbumRef>> refsBySongToken; // The album's words plus its song title words
+    private LinkedHashMap<AlbumRef, Album> residentAlbums;
+    // Read-only snapshots handed out by getAllAlbums / getAllSongs; dropped whenever the catalog changes
+    private List<Album> allAlbumsView;
+    private List<Song> allSongsView;
+    // Dense per-store ids -> registered album / song (null where none is registered). Ids are handed out
+    // in registration order; in lazy mode each index entry reserves its album id and a block of song ids
+    // up front, so a re-parsed album gets the same ids again.
+    private Album[] albumsById;
+    private Song[] songsById;
+    private int nextAlbumId;
+    private int nextSongId;
 
     public MusicStore() {
         this.albums = new HashMap<String, Album>();
         this.songs = new HashMap<String, List<Song>>();
+        this.songSet = new HashSet<Song>();
+        this.songsByNormalizedTitle = new HashMap<String, List<Song>>();
+        this.albumsByArtist = new HashMap<String, List<Album>>();
+        this.songsByArtist = new HashMap<String, List<Song>>();
+        this.albumsByGenre = new HashMap<String, List<Album>>();
+        this.loadTimings = new LinkedHashMap<String, Long>();
+        this.searchIndex = new SearchIndex();
+        this.albumsById = new Album[16];
+        this.songsById = new Song[16];
     }
 
     public void loadAllAlbums(String indexFilePath) throws IOException {
+        loadTimings.clear();
+        long start = System.nanoTime();
+        List<AlbumRef> refs = readAlbumIndex(indexFilePath);
+        long indexed = System.nanoTime();
+        for (AlbumRef ref : refs) {
+            loadSingleAlbum(ref.file);
+        }
+        recordTiming("index", indexed - start);
+        recordTiming("load", System.nanoTime() - indexed);
+    }
+
+    private void loadSingleAlbum(String filename) throws IOException {
+        Album album = parseAlbumFile(filename);
+        if (album != null) {
+            registerAlbum(album);
+        }
+    }
+
+    // Parses album files concurrently on a bounded pool, then merges them in index order
+    // on the calling thread so the store ends up identical to the sequential load.
+    public void loadAllAlbumsParallel(String indexFilePath, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1.");
+        }
+        loadTimings.clear();
+        long start = System.nanoTime();
+        List<AlbumRef> refs = readAlbumIndex(indexFilePath);
+        long indexed = System.nanoTime();
+        List<Album> loaded = parseAlbumFiles(refs, threads);
+        long parsedAt = System.nanoTime();
+        for (Album album : loaded) {
+            registerAlbum(album);
+        }
+        recordTiming("index", indexed - start);
+        recordTiming("parse", parsedAt - indexed);
+        recordTiming("merge", System.nanoTime() - parsedAt);
+    }
+
+    // Starts from the compiled snapshot when it is up to date with albums.txt and every album file;
+    // otherwise parses the text catalog and rewrites the snapshot for the next start. The catalog is
+    // loaded either way: a snapshot that cannot be written (e.g. a read-only directory) is only reported.
+    public void loadFromSnapshot(String indexFilePath, String snapshotPath) throws IOException {
+        loadTimings.clear();
+        long start = System.nanoTime();
+        List<AlbumRef> refs = readAlbumIndex(indexFilePath);
+        List<String> sourceFiles = new ArrayList<>();
+        sourceFiles.add(indexFilePath);
+        for (AlbumRef ref : refs) {
+            sourceFiles.add(ref.file);
+        }
+        long fingerprint = CatalogSnapshot.fingerprint(sourceFiles);
+        long indexed = System.nanoTime();
+        recordTiming("index", indexed - start);
+
+        List<Album> loaded = CatalogSnapshot.read(snapshotPath, fingerprint);
+        boolean stale = loaded == null;
+        long readAt = System.nanoTime();
+        if (!stale) {
+            recordTiming("snapshot", readAt - indexed);
+        } else {
+            loaded = parseAlbumFiles(refs, Runtime.getRuntime().availableProcessors());
+            readAt = System.nanoTime();
+            recordTiming("parse", readAt - indexed);
+        }
+        for (Album album : loaded) {
+            registerAlbum(album);
+        }
+        long mergedAt = System.nanoTime();
+        recordTiming("merge", mergedAt - readAt);
+        if (stale) {
+            try {
+                CatalogSnapshot.write(loaded, fingerprint, snapshotPath);
+                recordTiming("write", System.nanoTime() - mergedAt);
+            } catch (IOException e) {
+                System.err.println("Could not write catalog snapshot " + snapshotPath + ": " + e.getMessage());
+            }
+        }
+    }
+
+    // Parses the given album files on a fixed-size pool; results keep index order and skip unreadable headers.
+    private List<Album> parseAlbumFiles(List<AlbumRef> refs, int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Album>> parsed = new ArrayList<>();
+        try {
+            for (AlbumRef ref : refs) {
+                parsed.add(pool.submit(() -> parseAlbumFile(ref.file)));
+            }
+            List<Album> loaded = new ArrayList<>();
+            for (Future<Album> future : parsed) {
+                Album album = future.get();
+                if (album != null) {
+                    loaded.add(album);
+                }
+            }
+            return loaded;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading albums", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to load album", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Lazy mode: no Album or Song objects are built up front. One streaming pass over the album files
+    // records which entries each title, artist, genre, song title and search word occurs in; finders
+    // then parse only the albums that match. At most cacheSize albums stay resident; the least recently
+    // used one is dropped from the store. Dropped albums are parsed again on next access, so their Song
+    // objects are new (but equal) instances.
+    public void loadAlbumIndex(String indexFilePath, int cacheSize) throws IOException {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1.");
+        }
+        loadTimings.clear();
+        long start = System.nanoTime();
+        albumRefs = new ArrayList<AlbumRef>();
+        refsByTitle = new HashMap<String, List<AlbumRef>>();
+        refsByArtist = new HashMap<String, List<AlbumRef>>();
+        refsByGenre = new HashMap<String, List<AlbumRef>>();
+        refsBySongTitle = new HashMap<String, List<AlbumRef>>();
+        refsByAlbumToken = new TreeMap<String, List<AlbumRef>>();
+        refsBySongToken = new TreeMap<String, List<AlbumRef>>();
+        for (AlbumRef ref : readAlbumIndex(indexFilePath)) {
+            indexAlbumFile(ref);
+        }
+        residentAlbums = new LinkedHashMap<AlbumRef, Album>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<AlbumRef, Album> eldest) {
+                if (size() > cacheSize) {
+                    unregisterAlbum(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+        recordTiming("index", System.nanoTime() - start);
+    }
+
+    // Number of albums currently parsed into the store (all of them outside lazy mode).
+    public synchronized int getResidentAlbumCount() {
+        return isLazy() ? residentAlbums.size() : albums.size();
+    }
+
+    private boolean isLazy() {
+        return albumRefs != null;
+    }
+
+    // Reads an album file's header and track titles into the lazy-mode indexes; unreadable headers are skipped
+    // like parseAlbumFile skips them.
+    private void indexAlbumFile(AlbumRef ref) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(ref.file))) {
+            String headerLine = reader.readLine();
+            String[] headerParts = headerLine == null ? new String[0] : headerLine.split(",", 4);
+            if (headerParts.length < 4) {
+                return;
+            }
+            AlbumRef entry = new AlbumRef(headerParts[0].trim(), headerParts[1].trim(), ref.file, albumRefs.size(),
+                    nextAlbumId++, nextSongId);
+            albumRefs.add(entry);
+            addPosting(refsByTitle, SearchIndex.normalize(entry.title), entry);
+            addPosting(refsByArtist, SearchIndex.normalize(entry.artist), entry);
+            String genre = headerParts[2].trim();
+            addPosting(refsByGenre, SearchIndex.normalize(genre), entry);
+            List<String> albumWords = new ArrayList<>(SearchIndex.tokenize(entry.title));
+            albumWords.addAll(SearchIndex.tokenize(entry.artist));
+            albumWords.addAll(SearchIndex.tokenize(genre));
+            for (String word : albumWords) {
+                addPosting(refsByAlbumToken, word, entry);
+                addPosting(refsBySongToken, word, entry);
+            }
+            String songTitle;
+            while ((songTitle = reader.readLine()) != null) {
+                songTitle = songTitle.trim();
+                if (!songTitle.isEmpty()) {
+                    entry.trackCount++;
+                    nextSongId++;
+                    addPosting(refsBySongTitle, SearchIndex.normalize(songTitle), entry);
+                    for (String word : SearchIndex.tokenize(songTitle)) {
+                        addPosting(refsBySongToken, word, entry);
+                    }
+                }
+            }
+        }
+    }
+
+    // Entries are indexed in order, so a duplicate can only be the last posting.
+    private static void addPosting(Map<String, List<AlbumRef>> index, String key, AlbumRef ref) {
+        List<AlbumRef> postings = index.computeIfAbsent(key, k -> new ArrayList<>());
+        if (postings.isEmpty() || postings.get(postings.size() - 1) != ref) {
+            postings.add(ref);
+        }
+    }
+
+    // Entries listed under every token, found by walking the shortest posting list and binary-searching
+    // the others by position.
+    private static List<AlbumRef> refsMatchingAll(Map<String, List<AlbumRef>> index, List<String> tokens) {
+        List<List<AlbumRef>> postings = new ArrayList<>();
+        for (String token : tokens) {
+            List<AlbumRef> refs = index.get(token);
+            if (refs == null) {
+                return Collections.emptyList();
+            }
+            postings.add(refs);
+        }
+        if (postings.isEmpty()) {
+            return Collections.emptyList();
+        }
+        postings.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        List<AlbumRef> matches = new ArrayList<>();
+        for (AlbumRef candidate : postings.get(0)) {
+            boolean inAll = true;
+            for (int i = 1; i < postings.size() && inAll; i++) {
+                inAll = Collections.binarySearch(postings.get(i), candidate,
+                        (a, b) -> Integer.compare(a.position, b.position)) >= 0;
+            }
+            if (inAll) {
+                matches.add(candidate);
+            }
+        }
+        return matches;
+    }
+
+    // Entries with any token starting with the prefix, in index order.
+    private List<AlbumRef> refsWithPrefix(TreeMap<String, List<AlbumRef>> index, String prefix) {
+        String key = SearchIndex.normalize(prefix);
+        if (key.isEmpty()) {
+            return Collections.emptyList();
+        }
+        BitSet hits = new BitSet(albumRefs.size());
+        for (List<AlbumRef> postings : index.subMap(key, true, key + Character.MAX_VALUE, false).values()) {
+            for (AlbumRef ref : postings) {
+                hits.set(ref.position);
+            }
+        }
+        List<AlbumRef> matches = new ArrayList<>();
+        for (int i = hits.nextSetBit(0); i >= 0; i = hits.nextSetBit(i + 1)) {
+            matches.add(albumRefs.get(i));
+        }
+        return matches;
+    }
+
+    // Returns the parsed album for an index entry, loading it into the store on first access.
+    // Caller holds the lock.
+    private Album materialize(AlbumRef ref) {
+        Album album = residentAlbums.get(ref);
+        if (album == null) {
+            try {
+                album = parseAlbumFile(ref.file);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not load album " + ref.title, e);
+            }
+            if (album == null) {
+                return null;
+            }
+            album.assignId(ref.albumId);
+            List<Song> tracks = album.getSongs();
+            for (int i = 0; i < tracks.size() && i < ref.trackCount; i++) {
+                tracks.get(i).assignId(ref.firstSong + i);
+            }
+            registerAlbum(album);
+            residentAlbums.put(ref, album);
+        }
+        return album;
+    }
+
+    // Visits the given index entries one album at a time, so the cache bound holds even for full scans.
+    private <T> List<T> collectLazily(List<AlbumRef> refs, Function<Album, Collection<T>> matcher) {
+        List<T> results = new ArrayList<>();
+        if (refs == null) {
+            return results;
+        }
+        for (AlbumRef ref : refs) {
+            Album album = materialize(ref);
+            if (album != null) {
+                results.addAll(matcher.apply(album));
+            }
+        }
+        return results;
+    }
+
+    // Lazy-mode answer: the matching index entries, parsed on demand, followed by what the store's own
+    // maps hold afterwards. Those hold the albums and songs added with addAlbum / addSong as well as
+    // resident copies of the entries already collected; the copies drop out as duplicates.
+    private synchronized <T> List<T> lazyResults(List<AlbumRef> refs, Function<Album, Collection<T>> matcher,
+            Supplier<Collection<T>> stored) {
+        Set<T> results = new LinkedHashSet<>(collectLazily(refs, matcher));
+        results.addAll(stored.get());
+        return new ArrayList<>(results);
+    }
+
+    private static List<Album> albumIf(Album album, boolean matches) {
+        return matches ? Collections.singletonList(album) : Collections.<Album>emptyList();
+    }
+
+    private static List<Song> songsWhere(Album album, Predicate<Song> filter) {
+        List<Song> matches = new ArrayList<>();
+        for (Song song : album.getSongs()) {
+            if (filter.test(song)) {
+                matches.add(song);
+            }
+        }
+        return matches;
+    }
+
+    // Returns the per-phase timings (in milliseconds) recorded by the last load.
+    public Map<String, Long> getLoadTimings() {
+        return new LinkedHashMap<>(loadTimings);
+    }
+
+    private void recordTiming(String phase, long nanos) {
+        loadTimings.put(phase, nanos / 1_000_000);
+    }
+
+    // Reads albums.txt and returns its entries in index order.
+    private List<AlbumRef> readAlbumIndex(String indexFilePath) throws IOException {
+        List<AlbumRef> refs = new ArrayList<>();
         try (BufferedReader reader = new BufferedReader(new FileReader(indexFilePath))) {
             String line;
             while ((line = reader.readLine()) != null) {
@@ -27,21 +413,22 @@ public class MusicStore {
                 }
                 String albumTitle = parts[0].trim();
                 String artist = parts[1].trim();
-                String albumFileName = "src/test/albums/" +  albumTitle + "_" + artist + ".txt";
-                loadSingleAlbum(albumFileName);
+                refs.add(new AlbumRef(albumTitle, artist, "src/test/albums/" +  albumTitle + "_" + artist + ".txt"));
             }
         }
+        return refs;
     }
 
-    private void loadSingleAlbum(String filename) throws IOException {
+    // Parses a single album file without touching the store, so it is safe to call from worker threads.
+    private Album parseAlbumFile(String filename) throws IOException {
         try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
             String headerLine = reader.readLine();
             if (headerLine == null) {
-                return;
+                return null;
             }
             String[] headerParts = headerLine.split(",", 4);
             if (headerParts.length < 4) {
-                return;
+                return null;
             }
             String albumTitle = headerParts[0].trim();
             String artist = headerParts[1].trim();
@@ -54,81 +441,365 @@ public class MusicStore {
             while ((songTitle = reader.readLine()) != null) {
                 songTitle = songTitle.trim();
                 if (!songTitle.isEmpty()) {
-                    Song song = new Song(songTitle, album);
-                    album.addSong(song);
-
-                    if (!this.songs.containsKey(songTitle)) {
-                        this.songs.put(songTitle, new ArrayList<Song>());
-                    }
-                    this.songs.get(songTitle).add(song);
+                    album.addSong(new Song(songTitle, album));
                 }
             }
-            this.albums.put(albumTitle, album);
+            return album;
+        }
+    }
+
+    // Adds a parsed album and its songs to the store maps.
+    private void registerAlbum(Album album) {
+        for (Song song : album.getSongs()) {
+            addSong(song);
+        }
+        addAlbum(album);
+    }
+
+    // Reverses registerAlbum for an album evicted from the lazy-mode cache.
+    private void unregisterAlbum(Album album) {
+        for (Song song : album.getSongs()) {
+            removeFromIndex(songs, song.getTitle(), song);
+            songSet.remove(song);
+            removeFromIndex(songsByNormalizedTitle, SearchIndex.normalize(song.getTitle()), song);
+            removeFromIndex(songsByArtist, SearchIndex.normalize(album.getArtist()), song);
+            searchIndex.removeSong(song);
+            if (song.getId() >= 0 && songsById[song.getId()] == song) {
+                songsById[song.getId()] = null;
+            }
+        }
+        allSongsView = null;
+        if (albumsById[album.getId()] == album) {
+            albumsById[album.getId()] = null;
+        }
+        if (albums.remove(album.getTitle(), album)) {
+            allAlbumsView = null;
+            searchIndex.removeAlbum(album);
+            removeFromIndex(albumsByArtist, SearchIndex.normalize(album.getArtist()), album);
+            removeFromIndex(albumsByGenre, SearchIndex.normalize(album.getGenre()), album);
         }
     }
 
     public List<Album> findAlbumsByTitle(String title) {
+        String key = SearchIndex.normalize(title);
+        if (isLazy()) {
+            return lazyResults(refsByTitle.get(key),
+                    album -> albumIf(album, SearchIndex.normalize(album.getTitle()).equals(key)),
+                    () -> storedAlbumsByTitle(title, key));
+        }
+        return storedAlbumsByTitle(title, key);
+    }
+
+    private List<Album> storedAlbumsByTitle(String title, String key) {
         List<Album> results = new ArrayList<>();
-        for (Album album : albums.values()) {
-            if (album.getTitle().equalsIgnoreCase(title)) {
+        for (Album album : albumCandidates(title)) {
+            if (SearchIndex.normalize(album.getTitle()).equals(key)) {
                 results.add(album);
             }
         }
         return results;
     }
 
+    // Exact lookup by title and artist; null if the store has no such album.
+    public Album getAlbum(String title, String artist) {
+        Album album = isLazy() ? null : albums.get(title);
+        if (album != null && album.getArtist().equals(artist)) {
+            return album;
+        }
+        for (Album candidate : findAlbumsByTitle(title)) {
+            if (candidate.getTitle().equals(title) && candidate.getArtist().equals(artist)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    // Lookups by id (Album.getId / Song.getId); null if the store has no such album or song. Ids belong
+    // to this store: two stores agree on them only if they registered the same albums in the same order.
+    // In lazy mode an evicted album is parsed again.
+    public synchronized Album getAlbum(int id) {
+        Album album = id >= 0 && id < albumsById.length ? albumsById[id] : null;
+        int position = isLazy() && !albumRefs.isEmpty() ? id - albumRefs.get(0).albumId : -1;
+        if (album == null && position >= 0 && position < albumRefs.size()) {
+            album = materialize(albumRefs.get(position));
+        }
+        return album;
+    }
+
+    public synchronized Song getSong(int id) {
+        Song song = id >= 0 && id < songsById.length ? songsById[id] : null;
+        if (song == null && isLazy() && id >= 0) {
+            // The entry whose block of song ids holds this one
+            int low = 0;
+            int high = albumRefs.size() - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                AlbumRef ref = albumRefs.get(mid);
+                if (id < ref.firstSong) {
+                    high = mid - 1;
+                } else if (id >= ref.firstSong + ref.trackCount) {
+                    low = mid + 1;
+                } else {
+                    Album album = materialize(ref);
+                    int track = id - ref.firstSong;
+                    return album == null || track >= album.getSongs().size() ? null : album.getSongs().get(track);
+                }
+            }
+        }
+        return song;
+    }
+
+    // Case-insensitive title lookup; returns a read-only view of the matching songs.
     public List<Song> findSongsByTitle(String title) {
-        if (this.songs.containsKey(title)) {
-            return this.songs.get(title);
-        } else {
-            return new ArrayList<Song>();
+        String key = SearchIndex.normalize(title);
+        if (isLazy()) {
+            return Collections.unmodifiableList(lazyResults(refsBySongTitle.get(key),
+                    album -> songsWhere(album, s -> SearchIndex.normalize(s.getTitle()).equals(key)),
+                    () -> lookup(songsByNormalizedTitle, key)));
+        }
+        List<Song> matches = this.songsByNormalizedTitle.get(key);
+        if (matches == null) {
+            return Collections.emptyList();
         }
+        return Collections.unmodifiableList(matches);
     }
 
+    // Returns a read-only list of every album. The list is built once and shared until the catalog changes.
+    // In lazy mode every album has to be parsed to list it, one at a time within the cache bound.
     public List<Album> getAllAlbums() {
-        return new ArrayList<Album>(this.albums.values());
+        if (isLazy()) {
+            return lazyResults(albumRefs, album -> albumIf(album, true), () -> albums.values());
+        }
+        if (allAlbumsView == null) {
+            allAlbumsView = Collections.unmodifiableList(new ArrayList<Album>(this.albums.values()));
+        }
+        return allAlbumsView;
     }
 
+    // Returns a read-only list of every song. The list is built once and shared until the catalog changes.
     public List<Song> getAllSongs() {
-        List<Song> all = new ArrayList<Song>();
-        for (String key : this.songs.keySet()) {
-            List<Song> list = this.songs.get(key);
-            all.addAll(list);
+        if (isLazy()) {
+            return lazyResults(albumRefs, album -> album.getSongs(), () -> songSet);
+        }
+        if (allSongsView == null) {
+            List<Song> all = new ArrayList<Song>();
+            for (String key : this.songs.keySet()) {
+                List<Song> list = this.songs.get(key);
+                all.addAll(list);
+            }
+            allSongsView = Collections.unmodifiableList(all);
         }
-        return all;
-  
+        return allSongsView;
     }
+    // Whether the song (or an equal copy, e.g. one read from a saved library) is registered in the
+    // store. In lazy mode an evicted album is parsed again to check its tracks.
+    public synchronized boolean containsSong(Song song) {
+        if (songSet.contains(song)) {
+            return true;
+        }
+        if (!isLazy()) {
+            return false;
+        }
+        Album album = song.getAlbum();
+        List<AlbumRef> refs = refsByTitle.get(SearchIndex.normalize(album.getTitle()));
+        for (AlbumRef ref : refs == null ? Collections.<AlbumRef>emptyList() : refs) {
+            if (ref.title.equals(album.getTitle()) && ref.artist.equals(album.getArtist())) {
+                Album resident = materialize(ref);
+                if (resident != null && resident.getSongs().contains(song)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     // Added helper methods to update internal maps (A.D)
-    public void addAlbum(Album album) {
-        albums.put(album.getTitle(), album);
+    public synchronized void addAlbum(Album album) {
+        Album previous = albums.put(album.getTitle(), album);
+        if (previous == album) {
+            return;
+        }
+        allAlbumsView = null;
+        album.assignId(nextAlbumId);
+        int id = album.getId();
+        nextAlbumId = Math.max(nextAlbumId, id + 1);
+        albumsById = grow(albumsById, id);
+        if (albumsById[id] == null || albumsById[id] == previous) {
+            albumsById[id] = album;
+        }
+        if (previous != null) {
+            searchIndex.removeAlbum(previous);
+            removeFromIndex(albumsByArtist, SearchIndex.normalize(previous.getArtist()), previous);
+            removeFromIndex(albumsByGenre, SearchIndex.normalize(previous.getGenre()), previous);
+        }
+        searchIndex.addAlbum(album);
+        albumsByArtist.computeIfAbsent(SearchIndex.normalize(album.getArtist()), k -> new ArrayList<>()).add(album);
+        albumsByGenre.computeIfAbsent(SearchIndex.normalize(album.getGenre()), k -> new ArrayList<>()).add(album);
     }
 
-    public void addSong(Song song) {
+    public synchronized void addSong(Song song) {
         String songTitle = song.getTitle();
         // Add song to the songs maps(A.D)
         songs.computeIfAbsent(songTitle, k -> new ArrayList<>()).add(song);
+        songSet.add(song);
+        allSongsView = null;
+        song.assignId(nextSongId);
+        int id = song.getId();
+        nextSongId = Math.max(nextSongId, id + 1);
+        songsById = grow(songsById, id);
+        if (songsById[id] == null) {
+            songsById[id] = song;
+        }
+        songsByNormalizedTitle.computeIfAbsent(SearchIndex.normalize(songTitle), k -> new ArrayList<>()).add(song);
+        songsByArtist.computeIfAbsent(SearchIndex.normalize(song.getAlbum().getArtist()), k -> new ArrayList<>()).add(song);
+        searchIndex.addSong(song);
     }
 
     public List<Song> findSongsByArtist(String artist) {
+        if (isLazy()) {
+            String key = SearchIndex.normalize(artist);
+            return lazyResults(refsByArtist.get(key),
+                    album -> songsWhere(album, s -> SearchIndex.normalize(s.getAlbum().getArtist()).equals(key)),
+                    () -> lookup(songsByArtist, key));
+        }
+        return lookup(songsByArtist, artist);
+    }
+
+    public List<Album> findAlbumsByArtist(String artist) {
+        if (isLazy()) {
+            String key = SearchIndex.normalize(artist);
+            return lazyResults(refsByArtist.get(key),
+                    album -> albumIf(album, SearchIndex.normalize(album.getArtist()).equals(key)),
+                    () -> lookup(albumsByArtist, key));
+        }
+        return lookup(albumsByArtist, artist);
+    }
+
+    public List<Album> findAlbumsByGenre(String genre) {
+        if (isLazy()) {
+            String key = SearchIndex.normalize(genre);
+            return lazyResults(refsByGenre.get(key),
+                    album -> albumIf(album, SearchIndex.normalize(album.getGenre()).equals(key)),
+                    () -> lookup(albumsByGenre, key));
+        }
+        return lookup(albumsByGenre, genre);
+    }
+
+    public List<Song> findSongsByGenre(String genre) {
+        if (isLazy()) {
+            String key = SearchIndex.normalize(genre);
+            return lazyResults(refsByGenre.get(key),
+                    album -> SearchIndex.normalize(album.getGenre()).equals(key) ? album.getSongs() : Collections.<Song>emptyList(),
+                    () -> storedSongsByGenre(key));
+        }
+        return storedSongsByGenre(SearchIndex.normalize(genre));
+    }
+
+    private List<Song> storedSongsByGenre(String key) {
         List<Song> results = new ArrayList<>();
-        for (List<Song> songList : songs.values()) {
-            for (Song s : songList) {
-                if (s.getAlbum().getArtist().equalsIgnoreCase(artist)) {
-                    results.add(s);
-                }
+        List<Album> matches = albumsByGenre.get(key);
+        if (matches != null) {
+            for (Album album : matches) {
+                results.addAll(album.getSongs());
             }
         }
         return results;
     }
 
-    public List<Album> findAlbumsByArtist(String artist) {
-        List<Album> results = new ArrayList<>();
-        for (Album album : albums.values()) {
-            if (album.getArtist().equalsIgnoreCase(artist)) {
-                results.add(album);
+    // Songs whose title, album, artist or genre contain every word of the query (e.g. "adele deep").
+    public List<Song> searchSongs(String query) {
+        if (isLazy()) {
+            List<String> tokens = SearchIndex.tokenize(query);
+            return lazyResults(refsMatchingAll(refsBySongToken, tokens),
+                    album -> songsWhere(album, s -> SearchIndex.songMatchesAll(s, tokens)),
+                    () -> searchIndex.songsMatchingAll(tokens));
+        }
+        return new ArrayList<>(searchIndex.songsMatchingAll(SearchIndex.tokenize(query)));
+    }
+
+    // Albums whose title, artist or genre contain every word of the query.
+    public List<Album> searchAlbums(String query) {
+        if (isLazy()) {
+            List<String> tokens = SearchIndex.tokenize(query);
+            return lazyResults(refsMatchingAll(refsByAlbumToken, tokens),
+                    album -> albumIf(album, SearchIndex.albumMatchesAll(album, tokens)),
+                    () -> searchIndex.albumsMatchingAll(tokens));
+        }
+        return new ArrayList<>(searchIndex.albumsMatchingAll(SearchIndex.tokenize(query)));
+    }
+
+    // Songs with any title, album, artist or genre word starting with the prefix (e.g. "roll").
+    public List<Song> findSongsByPrefix(String prefix) {
+        if (isLazy()) {
+            return lazyResults(refsWithPrefix(refsBySongToken, prefix),
+                    album -> songsWhere(album, s -> SearchIndex.songHasPrefix(s, prefix)),
+                    () -> searchIndex.songsWithPrefix(prefix));
+        }
+        return new ArrayList<>(searchIndex.songsWithPrefix(prefix));
+    }
+
+    // Albums with any title, artist or genre word starting with the prefix.
+    public List<Album> findAlbumsByPrefix(String prefix) {
+        if (isLazy()) {
+            return lazyResults(refsWithPrefix(refsByAlbumToken, prefix),
+                    album -> albumIf(album, SearchIndex.albumHasPrefix(album, prefix)),
+                    () -> searchIndex.albumsWithPrefix(prefix));
+        }
+        return new ArrayList<>(searchIndex.albumsWithPrefix(prefix));
+    }
+
+    // Index candidates for an exact-match query; falls back to a full scan when the text has no word tokens.
+    private Collection<Album> albumCandidates(String text) {
+        List<String> tokens = SearchIndex.tokenize(text);
+        return tokens.isEmpty() ? albums.values() : searchIndex.albumsMatchingAll(tokens);
+    }
+
+    // Makes room for index id, doubling so a full load grows the array only a few times.
+    private static <T> T[] grow(T[] byId, int id) {
+        if (id < byId.length) {
+            return byId;
+        }
+        return Arrays.copyOf(byId, Math.max(byId.length * 2, id + 1));
+    }
+
+    private static <T> List<T> lookup(Map<String, List<T>> index, String key) {
+        List<T> matches = index.get(SearchIndex.normalize(key));
+        return matches == null ? new ArrayList<T>() : new ArrayList<T>(matches);
+    }
+
+    private static <T> void removeFromIndex(Map<String, List<T>> index, String key, T value) {
+        List<T> values = index.get(key);
+        if (values != null) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                index.remove(key);
             }
         }
-        return results;
     }
 
+    // One line of albums.txt: enough to locate an album file without parsing it. In lazy mode the
+    // title and artist come from the file header, position is the entry's place in albumRefs, and the
+    // ids and track count are reserved by the indexing pass.
+    private static class AlbumRef {
+        private final String title;
+        private final String artist;
+        private final String file;
+        private final int position;
+        private final int albumId;
+        private final int firstSong; // Its tracks take song ids firstSong to firstSong + trackCount - 1
+        private int trackCount;
+
+        AlbumRef(String title, String artist, String file) {
+            this(title, artist, file, -1, -1, -1);
+        }
+
+        AlbumRef(String title, String artist, String file, int position, int albumId, int firstSong) {
+            this.title = title;
+            this.artist = artist;
+            this.file = file;
+            this.position = position;
+            this.albumId = albumId;
+            this.firstSong = firstSong;
+        }
+    }
 }
@@ -0,0 +1,203 @@
+package main.database;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+// Inverted token index over the catalog. Songs are indexed by their title, album title, artist and genre;
+// albums by their title, artist and genre. Tokens are case-folded and accent-stripped.
+public class SearchIndex {
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    // Sorted so prefix queries can be answered with a range scan
+    private final TreeMap<String, Set<Song>> songTokens;
+    private final TreeMap<String, Set<Album>> albumTokens;
+
+    public SearchIndex() {
+        this.songTokens = new TreeMap<>();
+        this.albumTokens = new TreeMap<>();
+    }
+
+    // Case-folds and strips accents so accented and plain spellings compare equal.
+    public static String normalize(String text) {
+        if (isAscii(text)) {
+            // Nothing to decompose; skips the Normalizer and regex for the common case
+            return text.toLowerCase(Locale.ROOT).trim();
+        }
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFD);
+        return MARKS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT).trim();
+    }
+
+    // Splits normalized text into distinct word tokens.
+    public static List<String> tokenize(String text) {
+        String normalized = normalize(text);
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String token = normalized.substring(start, i);
+                if (!tokens.contains(token)) {
+                    tokens.add(token);
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 128) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void addSong(Song song) {
+        for (String token : songTokensOf(song)) {
+            songTokens.computeIfAbsent(token, k -> new HashSet<>()).add(song);
+        }
+    }
+
+    public void removeSong(Song song) {
+        for (String token : songTokensOf(song)) {
+            removePosting(songTokens, token, song);
+        }
+    }
+
+    public void addAlbum(Album album) {
+        for (String token : albumTokensOf(album)) {
+            albumTokens.computeIfAbsent(token, k -> new HashSet<>()).add(album);
+        }
+    }
+
+    public void removeAlbum(Album album) {
+        for (String token : albumTokensOf(album)) {
+            removePosting(albumTokens, token, album);
+        }
+    }
+
+    // Songs that contain every token of the query.
+    public Set<Song> songsMatchingAll(List<String> tokens) {
+        return intersect(songTokens, tokens);
+    }
+
+    // Albums that contain every token of the query.
+    public Set<Album> albumsMatchingAll(List<String> tokens) {
+        return intersect(albumTokens, tokens);
+    }
+
+    // Songs with at least one token starting with the given prefix.
+    public Set<Song> songsWithPrefix(String prefix) {
+        return union(songTokens, normalize(prefix));
+    }
+
+    // Albums with at least one token starting with the given prefix.
+    public Set<Album> albumsWithPrefix(String prefix) {
+        return union(albumTokens, normalize(prefix));
+    }
+
+    // Direct checks against a single song or album, for callers that have no index to consult.
+    public static boolean songMatchesAll(Song song, List<String> tokens) {
+        return !tokens.isEmpty() && songTokensOf(song).containsAll(tokens);
+    }
+
+    public static boolean albumMatchesAll(Album album, List<String> tokens) {
+        return !tokens.isEmpty() && albumTokensOf(album).containsAll(tokens);
+    }
+
+    public static boolean songHasPrefix(Song song, String prefix) {
+        return anyStartsWith(songTokensOf(song), normalize(prefix));
+    }
+
+    public static boolean albumHasPrefix(Album album, String prefix) {
+        return anyStartsWith(albumTokensOf(album), normalize(prefix));
+    }
+
+    private static boolean anyStartsWith(Set<String> tokens, String prefix) {
+        if (prefix.isEmpty()) {
+            return false;
+        }
+        for (String token : tokens) {
+            if (token.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<String> songTokensOf(Song song) {
+        Set<String> tokens = new HashSet<>(tokenize(song.getTitle()));
+        tokens.addAll(albumTokensOf(song.getAlbum()));
+        return tokens;
+    }
+
+    private static Set<String> albumTokensOf(Album album) {
+        Set<String> tokens = new HashSet<>(tokenize(album.getTitle()));
+        tokens.addAll(tokenize(album.getArtist()));
+        tokens.addAll(tokenize(album.getGenre()));
+        return tokens;
+    }
+
+    private static <T> void removePosting(Map<String, Set<T>> index, String token, T value) {
+        Set<T> postings = index.get(token);
+        if (postings != null) {
+            postings.remove(value);
+            if (postings.isEmpty()) {
+                index.remove(token);
+            }
+        }
+    }
+
+    // Walks the smallest posting set and probes the others, so the cost follows the rarest token.
+    private static <T> Set<T> intersect(Map<String, Set<T>> index, List<String> tokens) {
+        if (tokens.isEmpty()) {
+            return Collections.emptySet();
+        }
+        List<Set<T>> postings = new ArrayList<>();
+        for (String token : tokens) {
+            Set<T> set = index.get(token);
+            if (set == null) {
+                return Collections.emptySet();
+            }
+            postings.add(set);
+        }
+        postings.sort((a, b) -> Integer.compare(a.size(), b.size()));
+        Set<T> results = new LinkedHashSet<>();
+        for (T candidate : postings.get(0)) {
+            boolean inAll = true;
+            for (int i = 1; i < postings.size() && inAll; i++) {
+                inAll = postings.get(i).contains(candidate);
+            }
+            if (inAll) {
+                results.add(candidate);
+            }
+        }
+        return results;
+    }
+
+    private static <T> Set<T> union(TreeMap<String, Set<T>> index, String prefix) {
+        if (prefix.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<T> results = new LinkedHashSet<>();
+        Collection<Set<T>> matches = index.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+        for (Set<T> postings : matches) {
+            results.addAll(postings);
+        }
+        return results;
+    }
+}
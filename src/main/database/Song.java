@@ -1,18 +1,42 @@
 package main.database;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.util.List;
 
+// A catalog song. Songs are shared by every user, so they hold no per-user state; ratings and
+// favorites live in each user's LibraryModel. A song that is one of its album's tracks equals every
+// other copy of that track (same album, track number and title), e.g. one read back from a saved
+// library or re-parsed by a lazy-mode store. Songs outside any album's track list are equal only to
+// themselves. The hash comes from the title and album alone, so it is fixed from construction.
 public class Song implements Serializable {
     private static final long serialVersionUID = 1L;
+    private static final int NONE = -1;
+    private static final int UNRESOLVED = -2; // Deserialized; the track is worked out on first use
+    // Keeps the rating fields in the serialized form so libraries saved before ratings moved out still load
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("title", String.class),
+            new ObjectStreamField("album", Album.class),
+            new ObjectStreamField("rating", int.class),
+            new ObjectStreamField("isFavorite", boolean.class)
+    };
     private String title;
     private Album album;
-    private int rating;
-    private boolean isFavorite;
+    // Rating read from an old library file, for LibraryModel to migrate; 0 otherwise
+    private transient int savedRating;
+    // Position in the album's track list, or NONE
+    private transient int track;
+    // Dense id from the MusicStore that registered the song (NONE if none), see MusicStore.getSong(int)
+    private transient int id;
 
     public Song(String title, Album album) {
         this.title = title;
         this.album = album;
-        this.isFavorite = false;
+        this.track = NONE;
+        this.id = NONE;
     }
 
     public String getTitle() {
@@ -23,26 +47,88 @@ public class Song implements Serializable {
         return this.album;
     }
 
-    public int getRating() {
-        return rating;
+    // Id in the MusicStore that registered this song, or -1 if no store has.
+    public int getId() {
+        return id;
     }
 
-    public void setRating(int rating) {
-        if (rating >= 1 && rating <= 5) {
-            this.rating = rating;
-            if (rating == 5) {
-                this.isFavorite = true;
+    // Called by MusicStore on registration; a song registered in several stores keeps the first id.
+    void assignId(int id) {
+        if (this.id == NONE) {
+            this.id = id;
+        }
+    }
+
+    // Called by Album.addSong with the track position the song takes.
+    void assignTrack(int track) {
+        if (this.track == NONE) {
+            this.track = track;
+        }
+    }
+
+    // Track number in the album, counting from 0, or -1 for a song that is not one of its album's tracks.
+    // This is the song's position in the track list unless the album was rebuilt with gaps.
+    public int getTrack() {
+        return Math.max(track(), NONE);
+    }
+
+    private int track() {
+        if (track == UNRESOLVED) {
+            track = resolveTrack();
+        }
+        return track;
+    }
+
+    // A deserialized song takes its position in the (also deserialized) album.
+    private int resolveTrack() {
+        List<Song> tracks = album == null ? null : album.tracks();
+        if (tracks == null || title == null) {
+            return UNRESOLVED; // Still being read; try again later
+        }
+        for (int i = 0; i < tracks.size(); i++) {
+            if (tracks.get(i) == this) {
+                return i;
             }
-        } else {
-            throw new IllegalArgumentException("Rating must be between 1-5.");
         }
+        return NONE;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Song)) {
+            return false;
+        }
+        Song other = (Song) o;
+        int track = track();
+        return track >= 0 && other.track() == track && title.equals(other.title) && album.equals(other.album);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (title == null ? 0 : title.hashCode()) + (album == null ? 0 : album.hashCode());
+    }
+
+    // Rating stored in this song by a library saved before ratings were per user (0 if none).
+    public int getSavedRating() {
+        return savedRating;
     }
 
-    public boolean isFavorite() {
-        return isFavorite;
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("title", title);
+        fields.put("album", album);
+        out.writeFields();
     }
 
-    public void setFavorite(boolean isFavorite) {
-        this.isFavorite = isFavorite;
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        this.title = (String) fields.get("title", null);
+        this.album = (Album) fields.get("album", null);
+        this.savedRating = fields.get("rating", 0);
+        this.track = UNRESOLVED;
+        this.id = NONE;
     }
 }
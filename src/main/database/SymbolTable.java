@@ -0,0 +1,59 @@
+package main.database;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Catalog-wide dictionary that maps each distinct artist and genre string to a compact int id,
+// so albums store one shared copy of every repeated name.
+public final class SymbolTable {
+    private static final SymbolTable CATALOG = new SymbolTable();
+
+    private final ConcurrentHashMap<String, Integer> ids;
+    // id -> string; grown under the lock, read without it
+    private volatile String[] strings;
+    private int size;
+
+    private SymbolTable() {
+        this.ids = new ConcurrentHashMap<>();
+        this.strings = new String[1024];
+    }
+
+    // The table shared by every Album.
+    public static SymbolTable catalog() {
+        return CATALOG;
+    }
+
+    // Returns the id for the string, assigning the next free id the first time it is seen. Null maps to -1.
+    public int intern(String s) {
+        if (s == null) {
+            return -1;
+        }
+        Integer id = ids.get(s);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(s);
+            if (id != null) {
+                return id;
+            }
+            String[] table = strings;
+            if (size == table.length) {
+                table = Arrays.copyOf(table, size * 2);
+            }
+            // Fill the slot before publishing the id so any thread holding the id can read it
+            table[size] = s;
+            strings = table;
+            ids.put(s, size);
+            return size++;
+        }
+    }
+
+    public String lookup(int id) {
+        return id < 0 ? null : strings[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+}
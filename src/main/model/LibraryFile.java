@@ -0,0 +1,401 @@
+package main.model;
+
+import main.database.Album;
+import main.database.MusicStore;
+import main.database.Song;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Binary save format for a LibraryModel. Unlike Java serialization it does not copy the catalog:
+// each song is stored as a key (album title, artist, track number) and re-linked to the MusicStore's
+// own Song objects on load. Album genre/year and the song title are kept too, so a song that is no
+// longer in the store (or a test-mode library) can still be rebuilt.
+//
+// Layout (all ints big-endian):
+//   header     magic, version, flags (bit 0 test mode, bit 1 automatic playlists exist),
+//              journal sequence (long, version 2+; the last LibraryJournal record the snapshot includes)
+//   strings    count, then byte length + UTF-8 bytes per distinct string
+//   albums     count, then title, artist, genre (string indexes) and year
+//   songs      count, then album index, track, title (string index) and rating
+//   library, favorites, recent plays (oldest first)   count, then song indexes
+//   play counts   count, then song index and plays, in first-played order
+//   playlists     count, then name (string index), song count and song indexes
+public class LibraryFile {
+    private static final int MAGIC = 0x4D534C42; // "MSLB"
+    private static final int VERSION = 2;
+    private static final int FLAG_TEST_MODE = 1;
+    private static final int FLAG_AUTOMATIC_PLAYLISTS = 2;
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    // Writes the library to a temp file next to path, forces it to disk and renames it into place.
+    public static void write(LibraryModel library, String path) throws IOException {
+        write(library, 0, path);
+    }
+
+    // Same as write, recording the last journal record the library reflects.
+    static void write(LibraryModel library, long journalSequence, String path) throws IOException {
+        write(new Contents(library), journalSequence, path);
+    }
+
+    // Writes contents captured earlier, so the encoding can run on another thread than the one that
+    // changes the library.
+    static void write(Contents contents, long journalSequence, String path) throws IOException {
+        Path target = Paths.get(path).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            encode(contents, journalSequence, channel);
+            channel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // What a library file holds, copied out of a LibraryModel. The song lists are the model's
+    // read-only snapshots, so capturing them is cheap; the maps are fresh copies.
+    static class Contents {
+        private final boolean testMode;
+        private final boolean automaticPlaylists;
+        private final List<Song> songs;
+        private final List<Song> favorites;
+        private final List<Song> recent;
+        private final Map<Song, Integer> counts;
+        private final Map<Song, Integer> ratings;
+        private final Map<String, List<Song>> playlists = new LinkedHashMap<>();
+
+        Contents(LibraryModel library) {
+            this.testMode = library.isTestMode();
+            this.automaticPlaylists = library.hasAutomaticPlaylists();
+            this.songs = library.getAllSongs();
+            this.favorites = library.getFavoriteSongs();
+            this.recent = new ArrayList<>(library.recentPlaysOldestFirst());
+            this.counts = library.playCountsInOrder();
+            this.ratings = library.ratingsInOrder();
+            for (Playlist p : library.userPlaylists()) {
+                playlists.put(p.getName(), p.getSongs());
+            }
+        }
+    }
+
+    private static void encode(Contents contents, long journalSequence, WritableByteChannel channel)
+            throws IOException {
+        Encoder encoder = new Encoder();
+        List<Song> songs = contents.songs;
+        List<Song> favorites = contents.favorites;
+        Collection<Song> recent = contents.recent;
+        Map<Song, Integer> counts = contents.counts;
+        Map<Song, Integer> ratings = contents.ratings;
+        Map<String, List<Song>> playlists = contents.playlists;
+        encoder.songIds(songs);
+        encoder.songIds(favorites);
+        encoder.songIds(recent);
+        encoder.songIds(counts.keySet());
+        for (Map.Entry<String, List<Song>> p : playlists.entrySet()) {
+            encoder.string(p.getKey());
+            encoder.songIds(p.getValue());
+        }
+        // Rated songs outside every list keep their rating too
+        encoder.songIds(ratings.keySet());
+
+        Output out = new Output(channel);
+        int flags = (contents.testMode ? FLAG_TEST_MODE : 0)
+                | (contents.automaticPlaylists ? FLAG_AUTOMATIC_PLAYLISTS : 0);
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(flags);
+        out.putLong(journalSequence);
+        out.putInt(encoder.strings.size());
+        for (String s : encoder.strings) {
+            out.putBytes(s.getBytes(StandardCharsets.UTF_8));
+        }
+        out.putInt(encoder.albums.size());
+        for (Album album : encoder.albums) {
+            out.putInt(encoder.string(album.getTitle()));
+            out.putInt(encoder.string(album.getArtist()));
+            out.putInt(encoder.string(album.getGenre()));
+            out.putInt(album.getYear());
+        }
+        out.putInt(encoder.songs.size());
+        for (Song song : encoder.songs) {
+            out.putInt(encoder.albumIds.get(song.getAlbum()));
+            out.putInt(SongLinker.trackOf(song));
+            out.putInt(encoder.string(song.getTitle()));
+            out.putInt(ratings.getOrDefault(song, 0));
+        }
+        writeSongList(out, encoder, songs);
+        writeSongList(out, encoder, favorites);
+        writeSongList(out, encoder, recent);
+        out.putInt(counts.size());
+        for (Map.Entry<Song, Integer> entry : counts.entrySet()) {
+            out.putInt(encoder.songIds.get(entry.getKey()));
+            out.putInt(entry.getValue());
+        }
+        out.putInt(playlists.size());
+        for (Map.Entry<String, List<Song>> p : playlists.entrySet()) {
+            out.putInt(encoder.string(p.getKey()));
+            writeSongList(out, encoder, p.getValue());
+        }
+        out.flush();
+    }
+
+    // The journal sequence stored in a library file's header (0 if there is no file or it predates journals).
+    static long journalSequence(String path) throws IOException {
+        Path source = Paths.get(path);
+        if (!Files.isRegularFile(source)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            int version = in.getInt() == MAGIC ? in.getInt() : -1;
+            if (version < 1) {
+                throw new IOException("Not a library file: " + path);
+            }
+            in.getInt(); // flags
+            return version >= 2 ? in.getLong() : 0;
+        }
+    }
+
+    // Reads a library written by write and links its songs to the store's songs where they exist.
+    // Returns null if the file is missing; throws IOException if it is not a library file.
+    public static LibraryModel read(String path, MusicStore musicStore) throws IOException {
+        Path source = Paths.get(path);
+        if (!Files.isRegularFile(source)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            int version = in.getInt() == MAGIC ? in.getInt() : -1;
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Not a library file: " + path);
+            }
+            int flags = in.getInt();
+            if (version >= 2) {
+                in.getLong(); // journal sequence, see journalSequence
+            }
+            String[] strings = new String[in.getCount(4)];
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = new String(in.getBytes(), StandardCharsets.UTF_8);
+            }
+            String[][] albums = new String[in.getCount(16)][];
+            int[] years = new int[albums.length];
+            for (int i = 0; i < albums.length; i++) {
+                albums[i] = new String[] {strings[in.getInt()], strings[in.getInt()], strings[in.getInt()]};
+                years[i] = in.getInt();
+            }
+            SongLinker linker = new SongLinker(musicStore);
+            Song[] songs = new Song[in.getCount(16)];
+            Map<Song, Integer> ratings = new LinkedHashMap<>();
+            for (int i = 0; i < songs.length; i++) {
+                int album = in.getInt();
+                int track = in.getInt();
+                String title = strings[in.getInt()];
+                songs[i] = linker.link(albums[album][0], albums[album][1], albums[album][2], years[album], track, title);
+                int rating = in.getInt();
+                if (rating < 0 || rating > 5) {
+                    throw new IOException("Corrupt library file: " + path);
+                }
+                if (rating != 0) {
+                    ratings.put(songs[i], rating);
+                }
+            }
+            List<Song> library = readSongList(in, songs);
+            List<Song> favorites = readSongList(in, songs);
+            List<Song> recent = readSongList(in, songs);
+            Map<Song, Integer> counts = new LinkedHashMap<>();
+            int countEntries = in.getCount(8);
+            for (int i = 0; i < countEntries; i++) {
+                counts.put(songs[in.getInt()], in.getInt());
+            }
+            List<Playlist> playlists = new ArrayList<>();
+            int playlistCount = in.getCount(8);
+            for (int i = 0; i < playlistCount; i++) {
+                Playlist p = new Playlist(strings[in.getInt()]);
+                for (Song song : readSongList(in, songs)) {
+                    p.addSong(song);
+                }
+                playlists.add(p);
+            }
+
+            LibraryModel model = new LibraryModel(musicStore);
+            model.restore((flags & FLAG_TEST_MODE) != 0, (flags & FLAG_AUTOMATIC_PLAYLISTS) != 0,
+                    library, favorites, recent, counts, ratings, playlists);
+            return model;
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException("Corrupt library file: " + path, e);
+        }
+    }
+
+    private static void writeSongList(Output out, Encoder encoder, Collection<Song> songs) throws IOException {
+        out.putInt(songs.size());
+        for (Song song : songs) {
+            out.putInt(encoder.songIds.get(song));
+        }
+    }
+
+    private static List<Song> readSongList(Input in, Song[] songs) throws IOException {
+        int count = in.getCount(4);
+        List<Song> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            list.add(songs[in.getInt()]);
+        }
+        return list;
+    }
+
+    // Assigns dense ids to the strings, albums and songs a library refers to.
+    private static class Encoder {
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> stringIds = new HashMap<>();
+        private final List<Album> albums = new ArrayList<>();
+        private final Map<Album, Integer> albumIds = new HashMap<>();
+        private final List<Song> songs = new ArrayList<>();
+        private final Map<Song, Integer> songIds = new HashMap<>();
+
+        private int string(String s) {
+            Integer id = stringIds.get(s);
+            if (id == null) {
+                id = strings.size();
+                stringIds.put(s, id);
+                strings.add(s);
+            }
+            return id;
+        }
+
+        private void songIds(Collection<Song> list) {
+            for (Song song : list) {
+                if (songIds.containsKey(song)) {
+                    continue;
+                }
+                songIds.put(song, songs.size());
+                songs.add(song);
+                Album album = song.getAlbum();
+                if (!albumIds.containsKey(album)) {
+                    albumIds.put(album, albums.size());
+                    albums.add(album);
+                    string(album.getTitle());
+                    string(album.getArtist());
+                    string(album.getGenre());
+                }
+                string(song.getTitle());
+            }
+        }
+    }
+
+    // Buffered writes to a channel.
+    private static class Output {
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+
+        private Output(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        private void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            if (buffer.remaining() < 8) {
+                flush();
+            }
+            buffer.putLong(value);
+        }
+
+        private void putBytes(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (!buffer.hasRemaining()) {
+                    flush();
+                }
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, chunk);
+                offset += chunk;
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    // Buffered reads from a channel.
+    private static class Input {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+
+        private Input(FileChannel channel) {
+            this.channel = channel;
+            buffer.flip();
+        }
+
+        private int getInt() throws IOException {
+            fill(4);
+            return buffer.getInt();
+        }
+
+        private long getLong() throws IOException {
+            fill(8);
+            return buffer.getLong();
+        }
+
+        // A count or length, checked against what is left of the file before anything is allocated for it:
+        // each of the count entries takes at least entryBytes bytes, so a corrupt count fails here instead
+        // of as an OutOfMemoryError.
+        private int getCount(int entryBytes) throws IOException {
+            int count = getInt();
+            if (count < 0) {
+                throw new IOException("Corrupt library file: negative count");
+            }
+            long remaining = channel.size() - channel.position() + buffer.remaining();
+            if (count > remaining / entryBytes) {
+                throw new IOException("Corrupt library file: count " + count + " exceeds the remaining "
+                        + remaining + " bytes");
+            }
+            return count;
+        }
+
+        private byte[] getBytes() throws IOException {
+            byte[] bytes = new byte[getCount(1)];
+            int offset = 0;
+            while (offset < bytes.length) {
+                fill(1);
+                int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.get(bytes, offset, chunk);
+                offset += chunk;
+            }
+            return bytes;
+        }
+
+        private void fill(int bytes) throws IOException {
+            while (buffer.remaining() < bytes) {
+                buffer.compact();
+                int read = channel.read(buffer);
+                buffer.flip();
+                if (read < 0) {
+                    throw new EOFException("Truncated library file");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,566 @@
+package main.model;
+
+import main.database.MusicStore;
+import main.database.Song;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+// Write-ahead journal for a LibraryModel. Every change is appended to <base>.journal as one small
+// record, so saving costs the size of the change instead of the size of the library. A LibraryFile
+// snapshot (<base>.lib) is rewritten in the background every COMPACT_RECORDS changes; on load the
+// snapshot is read and the journal records newer than it are replayed.
+//
+// Record: body length (int), body, CRC32 of the body (int).
+// Body:   sequence (long), type (byte), playlist name (string or -1), song key (flag byte, then album
+//         title, artist, genre, year, track, song title), value (int). Strings are length + UTF-8.
+//
+// Compaction captures the library on the thread that changes it, renames the journal to
+// <base>.journal.old and starts a new one; then, off that thread, it forces the old journal, writes the
+// snapshot and deletes the old journal. Every record carries a sequence number and the snapshot stores
+// the last one it includes, so a crash at any point replays each change exactly once; on load the
+// sequence numbers must continue without a gap from the snapshot through the old journal into the
+// current one. A record that does not frame, check or decode (from a crash mid-append) ends the current
+// journal and is cut off. In the old journal only a last record cut short (renamed before it was forced,
+// or left by a failed append) is dropped, and other damage fails the load; the new journal is never
+// forced before the old one, so a record lost from the old journal is either the last change or shows
+// up as a gap.
+//
+// Appends only write to the OS; with a PersistenceService attached, the fsync happens on its thread,
+// outside the journal's lock, so changes are never held up by it. If an append fails, the next change
+// (or sync) on the library's own thread starts a compaction, whose snapshot covers what the journal lacks.
+public class LibraryJournal {
+    static final byte ADD = 1;
+    static final byte REMOVE = 2;
+    static final byte RATE = 3;
+    static final byte FAVORITE = 4;
+    static final byte PLAY = 5;
+    static final byte CREATE_PLAYLIST = 6;
+    static final byte PLAYLIST_ADD = 7;
+    static final byte PLAYLIST_REMOVE = 8;
+    static final byte TEST_MODE = 9;
+    static final byte AUTOMATIC_PLAYLISTS = 10;
+    private static final int COMPACT_RECORDS = 1000;
+
+    private final LibraryModel library;
+    private final String snapshotPath;
+    private final Path journalPath;
+    private final Path oldJournalPath;
+    private final ExecutorService compactor;
+    private FileChannel channel;
+    // The journal renamed by compaction, until it has been forced and closed. Not guarded by the lock:
+    // the compactor forces it while the library's thread may hold the lock waiting for the compactor.
+    private final AtomicReference<FileChannel> unforcedOld = new AtomicReference<>();
+    private ByteBuffer record;
+    private long sequence; // Sequence number of the last record written
+    private int recordsSinceCompaction;
+    private Future<?> compaction;
+    private boolean failed; // An append failed; the journal lacks changes until the next snapshot
+    private boolean closed;
+    private PersistenceService persistence;
+
+    private LibraryJournal(LibraryModel library, String basePath, long sequence) throws IOException {
+        this.library = library;
+        this.snapshotPath = basePath + ".lib";
+        this.journalPath = Paths.get(basePath + ".journal");
+        this.oldJournalPath = Paths.get(basePath + ".journal.old");
+        this.sequence = sequence;
+        this.record = ByteBuffer.allocate(256);
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "library-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.channel = openJournal();
+    }
+
+    // Loads <base>.lib (if any), replays the journals on top of it and starts journaling the library.
+    public static LibraryJournal open(String basePath, MusicStore musicStore) throws IOException {
+        String snapshotPath = basePath + ".lib";
+        long snapshotSequence = LibraryFile.journalSequence(snapshotPath);
+        LibraryModel library = LibraryFile.read(snapshotPath, musicStore);
+        if (library == null) {
+            library = new LibraryModel(musicStore);
+        }
+
+        SongLinker linker = new SongLinker(musicStore);
+        for (Song song : library.getAllSongs()) {
+            linker.seed(song);
+        }
+        for (Song song : library.getFavoriteSongs()) {
+            linker.seed(song);
+        }
+        for (Song song : library.playCountsInOrder().keySet()) {
+            linker.seed(song);
+        }
+        for (Playlist p : library.userPlaylists()) {
+            for (Song song : p.getSongs()) {
+                linker.seed(song);
+            }
+        }
+        Replay replay = new Replay(library, linker, snapshotSequence);
+        replay.apply(Paths.get(basePath + ".journal.old"), false);
+        replay.apply(Paths.get(basePath + ".journal"), true);
+
+        LibraryJournal journal = new LibraryJournal(library, basePath, replay.lastSequence);
+        journal.recordsSinceCompaction = replay.applied;
+        library.setJournal(journal);
+        if (Files.exists(journal.oldJournalPath) || journal.recordsSinceCompaction >= COMPACT_RECORDS) {
+            journal.compact();
+        }
+        return journal;
+    }
+
+    // Starts journaling an existing library (for example one migrated from an older save format):
+    // writes it as the snapshot, replacing whatever <base> files were there.
+    public static LibraryJournal create(LibraryModel library, String basePath) throws IOException {
+        Files.deleteIfExists(Paths.get(basePath + ".journal.old"));
+        Files.deleteIfExists(Paths.get(basePath + ".journal"));
+        LibraryFile.write(library, 0, basePath + ".lib");
+        LibraryJournal journal = new LibraryJournal(library, basePath, 0);
+        library.setJournal(journal);
+        return journal;
+    }
+
+    public LibraryModel getLibrary() {
+        return library;
+    }
+
+    // Number of changes since the snapshot was last rewritten.
+    public int getRecordsSinceCompaction() {
+        return recordsSinceCompaction;
+    }
+
+    // Hands fsyncs to a background service instead of waiting for the next sync().
+    public synchronized void setPersistence(PersistenceService persistence) {
+        this.persistence = persistence;
+    }
+
+    // Appends one change. Called by LibraryModel, on the thread that changes it, after applying the change.
+    synchronized void append(byte type, String playlist, Song song, int value) {
+        if (failed) {
+            compact(); // The snapshot covers this change too; until one starts, changes are not journaled
+            return;
+        }
+        try {
+            writeRecord(type, playlist, song, value);
+        } catch (IOException e) {
+            System.err.println("Error writing library journal " + journalPath + ": " + e.getMessage());
+            failed = true;
+            compact();
+            return;
+        }
+        if (++recordsSinceCompaction >= COMPACT_RECORDS) {
+            compact();
+        }
+        if (persistence != null) {
+            persistence.markDirty(this);
+        }
+    }
+
+    // Forces the journal to disk. If an append failed, writes a full snapshot instead. Called on the
+    // thread that changes the library.
+    public void sync() throws IOException {
+        synchronized (this) {
+            if (failed) {
+                compactNow();
+                failed = false;
+                return;
+            }
+        }
+        forceJournals();
+    }
+
+    // Rewrites the snapshot in the background and starts a new journal. Does nothing if a
+    // compaction is still running; the next one will pick up the changes since. Called on the thread
+    // that changes the library, which is where the snapshot is captured.
+    public synchronized void compact() {
+        if (compaction != null && !compaction.isDone()) {
+            return;
+        }
+        try {
+            if (Files.exists(oldJournalPath) || unforcedOld.get() != null) {
+                // An earlier compaction did not finish; write this one in place so its records are kept
+                compactNow();
+                failed = false;
+                return;
+            }
+            LibraryFile.Contents snapshot = new LibraryFile.Contents(library);
+            long snapshotSequence = sequence;
+            // Renamed while open and forced by the compactor, so this thread does not wait on the disk
+            Files.move(journalPath, oldJournalPath, StandardCopyOption.ATOMIC_MOVE);
+            unforcedOld.set(channel);
+            channel = openJournal();
+            recordsSinceCompaction = 0;
+            failed = false;
+            compaction = compactor.submit(() -> {
+                try {
+                    forceOldJournal();
+                    LibraryFile.write(snapshot, snapshotSequence, snapshotPath);
+                    Files.delete(oldJournalPath);
+                } catch (IOException e) {
+                    System.err.println("Error compacting library " + snapshotPath + ": " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error compacting library " + snapshotPath + ": " + e.getMessage());
+            failed = true;
+        }
+    }
+
+    // Waits for a running compaction, forces the journal and stops journaling the library.
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        awaitCompaction();
+        sync();
+        channel.close();
+        closed = true;
+        compactor.shutdown();
+        library.setJournal(null);
+    }
+
+    // Background flush from PersistenceService. Holds the lock only to read the channel, so appends go
+    // on during the fsync. A journal closed in the meantime is already on disk, and after a failed append
+    // the library's own thread takes the snapshot.
+    void force() throws IOException {
+        synchronized (this) {
+            if (closed || failed) {
+                return;
+            }
+        }
+        forceJournals();
+    }
+
+    // Forces the old journal (if compaction left one unforced) and then the current one, outside the lock.
+    private void forceJournals() throws IOException {
+        forceOldJournal();
+        FileChannel current;
+        synchronized (this) {
+            current = channel;
+        }
+        try {
+            current.force(false);
+        } catch (ClosedChannelException e) {
+            // Closed by compaction or close, both of which force or snapshot what it held
+        }
+    }
+
+    private void forceOldJournal() throws IOException {
+        FileChannel old = unforcedOld.get();
+        if (old == null) {
+            return;
+        }
+        try {
+            old.force(false);
+        } catch (ClosedChannelException e) {
+            return; // Another thread forced and closed it
+        }
+        if (unforcedOld.compareAndSet(old, null)) {
+            old.close();
+        }
+    }
+
+    // Writes the snapshot on the caller's thread and truncates the journals it now covers.
+    private void compactNow() throws IOException {
+        awaitCompaction();
+        FileChannel old = unforcedOld.getAndSet(null);
+        if (old != null) {
+            old.close(); // The snapshot below covers it
+        }
+        if (!channel.isOpen()) {
+            channel = openJournal();
+        }
+        LibraryFile.write(library, sequence, snapshotPath);
+        Files.deleteIfExists(oldJournalPath);
+        channel.truncate(0);
+        channel.force(false);
+        recordsSinceCompaction = 0;
+    }
+
+    private void awaitCompaction() throws IOException {
+        if (compaction == null) {
+            return;
+        }
+        try {
+            compaction.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compacting " + snapshotPath, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Compaction failed for " + snapshotPath, e.getCause());
+        }
+    }
+
+    private FileChannel openJournal() throws IOException {
+        return FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private void writeRecord(byte type, String playlist, Song song, int value) throws IOException {
+        record.clear();
+        record.position(4);
+        putLong(sequence + 1);
+        putByte(type);
+        putString(playlist);
+        if (song == null) {
+            putByte((byte) 0);
+        } else {
+            putByte((byte) 1);
+            putString(song.getAlbum().getTitle());
+            putString(song.getAlbum().getArtist());
+            putString(song.getAlbum().getGenre());
+            putInt(song.getAlbum().getYear());
+            putInt(SongLinker.trackOf(song));
+            putString(song.getTitle());
+        }
+        putInt(value);
+        int bodyLength = record.position() - 4;
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, bodyLength);
+        putInt((int) crc.getValue());
+        record.putInt(0, bodyLength);
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        sequence++;
+    }
+
+    private void ensureRoom(int bytes) {
+        if (record.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+            record.flip();
+            larger.put(record);
+            record = larger;
+        }
+    }
+
+    private void putByte(byte value) {
+        ensureRoom(1);
+        record.put(value);
+    }
+
+    private void putInt(int value) {
+        ensureRoom(4);
+        record.putInt(value);
+    }
+
+    private void putLong(long value) {
+        ensureRoom(8);
+        record.putLong(value);
+    }
+
+    private void putString(String s) {
+        if (s == null) {
+            putInt(-1);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        ensureRoom(bytes.length);
+        record.put(bytes);
+    }
+
+    // Applies journal records newer than the snapshot to a freshly loaded library.
+    private static class Replay {
+        private final LibraryModel library;
+        private final SongLinker linker;
+        private long lastSequence;
+        private int applied;
+
+        private Replay(LibraryModel library, SongLinker linker, long snapshotSequence) {
+            this.library = library;
+            this.linker = linker;
+            this.lastSequence = snapshotSequence;
+        }
+
+        // Reads every complete record. In the active journal (truncateTail) the first record that does not
+        // frame, check or decode is the torn tail of a crashed append and is cut off, so later appends
+        // follow the last good record. In the old journal only a last record cut short is dropped; any
+        // other damage is corruption and fails the load.
+        private void apply(Path path, boolean truncateTail) throws IOException {
+            if (!Files.isRegularFile(path)) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            int good = 0;
+            while (buffer.remaining() >= 4) {
+                Entry entry = nextEntry(buffer);
+                if (entry == null) {
+                    break;
+                }
+                good = buffer.position();
+                apply(entry, path);
+            }
+            if (good == buffer.limit()) {
+                return;
+            }
+            if (!truncateTail) {
+                if (!isCutShort(buffer, good)) {
+                    throw new IOException("Corrupt record in " + path + " at offset " + good);
+                }
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(good);
+                channel.force(false);
+            }
+        }
+
+        // True if the bytes from offset on are one record the file ends in the middle of, or zeros (space
+        // the file system allocated before a crash but never wrote).
+        private static boolean isCutShort(ByteBuffer buffer, int offset) {
+            int left = buffer.limit() - offset;
+            if (left < 4) {
+                return true;
+            }
+            int length = buffer.getInt(offset);
+            if (length > 0) {
+                return left - 4 < length + 4;
+            }
+            for (int i = offset; i < buffer.limit(); i++) {
+                if (buffer.get(i) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Frames, checks and decodes the next record; null if it is damaged.
+        private static Entry nextEntry(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length < 0 || buffer.remaining() < length + 4) {
+                return null;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), buffer.position(), length);
+            ByteBuffer body = ByteBuffer.wrap(buffer.array(), buffer.position(), length).slice();
+            buffer.position(buffer.position() + length);
+            if (buffer.getInt() != (int) crc.getValue()) {
+                return null;
+            }
+            try {
+                Entry entry = new Entry(body);
+                return body.hasRemaining() ? null : entry;
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                return null; // Checksum matched but the body does not decode
+            }
+        }
+
+        private void apply(Entry entry, Path path) throws IOException {
+            if (entry.sequence <= lastSequence) {
+                return; // Already in the snapshot
+            }
+            if (entry.sequence != lastSequence + 1) {
+                throw new IOException("Journal " + path + " skips from record " + lastSequence + " to "
+                        + entry.sequence + "; records are missing");
+            }
+            try {
+                applyRecord(entry);
+                applied++;
+            } catch (RuntimeException e) {
+                System.err.println("Skipping journal record " + entry.sequence + " in " + path + ": " + e);
+            }
+            lastSequence = entry.sequence;
+        }
+
+        private void applyRecord(Entry entry) {
+            Song song = entry.albumTitle == null ? null : linker.link(entry.albumTitle, entry.artist,
+                    entry.genre, entry.year, entry.track, entry.title);
+            String playlist = entry.playlist;
+            int value = entry.value;
+            switch (entry.type) {
+                case ADD:
+                    library.addSongUnchecked(song);
+                    break;
+                case REMOVE:
+                    library.removeSongFromLibrary(song);
+                    break;
+                case RATE:
+                    library.rateSong(song, value);
+                    break;
+                case FAVORITE:
+                    library.markSongAsFavorite(song);
+                    break;
+                case PLAY:
+                    library.playSong(song);
+                    break;
+                case CREATE_PLAYLIST:
+                    library.createPlaylist(playlist);
+                    break;
+                case PLAYLIST_ADD:
+                    library.addSongToPlaylist(playlist, song);
+                    break;
+                case PLAYLIST_REMOVE:
+                    library.removeSongFromPlaylist(playlist, song);
+                    break;
+                case TEST_MODE:
+                    library.enableTestMode();
+                    break;
+                case AUTOMATIC_PLAYLISTS:
+                    library.ensureAutomaticPlaylists();
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown journal record type " + entry.type);
+            }
+        }
+    }
+
+    // One decoded record body; the song key fields are null when the record has no song.
+    private static class Entry {
+        private final long sequence;
+        private final byte type;
+        private final String playlist;
+        private String albumTitle;
+        private String artist;
+        private String genre;
+        private int year;
+        private int track;
+        private String title;
+        private final int value;
+
+        private Entry(ByteBuffer body) {
+            this.sequence = body.getLong();
+            this.type = body.get();
+            this.playlist = getString(body);
+            if (body.get() == 1) {
+                this.albumTitle = getString(body);
+                this.artist = getString(body);
+                this.genre = getString(body);
+                this.year = body.getInt();
+                this.track = body.getInt();
+                this.title = getString(body);
+            }
+            this.value = body.getInt();
+        }
+
+        private static String getString(ByteBuffer body) {
+            int length = body.getInt();
+            if (length < 0) {
+                return null;
+            }
+            if (length > body.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            byte[] bytes = new byte[length];
+            body.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
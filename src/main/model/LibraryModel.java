@@ -1,30 +1,92 @@
 package main.model;
 
 import main.database.*;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.*;
 
 public class LibraryModel implements Serializable {
     private static final long serialVersionUID = 1L;
-    // List of songs that are in the user's library
-    private List<Song> userLibrary;
-    // Map of playlist names to Playlist objects (both user-created and automatic playlists)
+    // Names and threshold of the automatic playlists
+    private static final String FAVORITES = "Favorite Songs";
+    private static final String TOP_RATED = "Top Rated";
+    private static final String GENRE_SUFFIX = " Playlist";
+    private static final String RECENT_PLAYS = "Recent Plays";
+    private static final String TOP_PLAYS = "Top Plays";
+    private static final int GENRE_PLAYLIST_MIN = 10;
+    private static final int RECENT_PLAYS_SIZE = 10;
+    private static final int TOP_PLAYS_SIZE = 10;
+    // Serialized form; the library is still written as a List so older library files keep loading
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("userLibrary", List.class),
+            new ObjectStreamField("playlists", Map.class),
+            new ObjectStreamField("favoriteSongs", List.class),
+            new ObjectStreamField("recentPlays", LinkedList.class),
+            new ObjectStreamField("playCounts", Map.class),
+            new ObjectStreamField("isTestMode", boolean.class),
+            new ObjectStreamField("ratings", Map.class)
+    };
+    // Songs that are in the user's library, in insertion order
+    private LinkedHashSet<Song> userLibrary;
+    // Library songs grouped by album (title + artist) and by normalized title; rebuilt after loading
+    private transient Map<String, Set<Song>> songsByAlbum;
+    private transient Map<String, Set<Song>> songsByTitle;
+    // Library songs grouped by genre; drives the genre playlists
+    private transient Map<String, Set<Song>> songsByGenre;
+    // Library songs in title / artist / rating order, kept up to date on add, remove and rate
+    private transient SortedSongs sortedSongs;
+    // Map of playlist names to user-created playlists (automatic playlists are views, see automaticPlaylist)
     private Map<String, Playlist> playlists;
-    // List of songs marked as favorites by the user
-    private List<Song> favoriteSongs;
+    // Library songs currently in Favorite Songs / Top Rated, maintained incrementally
+    private transient LinkedHashSet<Song> favoritePlaylistSongs;
+    private transient LinkedHashSet<Song> topRatedSongs;
+    // Favorite Songs and Top Rated appear with the first library change
+    private transient boolean hasAutomaticPlaylists;
+    // Bumped by every change that can affect an automatic playlist. Views are built on read and
+    // cached until the version moves on, so writes never pay for playlists nobody looks at.
+    private transient long version;
+    private transient long viewsVersion;
+    private transient Map<String, Playlist> automaticViews;
+    // Read-only snapshots returned by the getters below; dropped when the underlying collection changes
+    private transient List<Song> librarySongsView;
+    private transient List<Song> favoriteSongsView;
+    private transient List<Playlist> playlistsView;
+    private transient long playlistsViewVersion;
+    // Songs marked as favorites by the user, in the order they were marked
+    private LinkedHashSet<Song> favoriteSongs;
     // MusicStore reference is transient because it is not serialized (reassigned upon loading)
     private transient MusicStore musicStore;
-    private LinkedList<Song> recentPlays; //  Added for tracking recent plays (A.D)
-    private Map<Song, Integer> playCounts; // Added for tracking play counts (A.D)
+    private LinkedHashSet<Song> recentPlays; // Recently played songs, oldest first (A.D)
+    // Play counts and the ranked top TOP_PLAYS_SIZE songs (A.D); saved as the playCounts map
+    private transient PlayCounter playCounts;
+    // This user's ratings and favorite flags; catalog Songs are shared and carry no user state
+    private transient SongStates songStates;
+    // Receives every change so it can be saved incrementally; null when the library is not journaled
+    private transient LibraryJournal journal;
 
     // Constructor that initializes all collections and stores the MusicStore reference.
     public LibraryModel(MusicStore musicStore) {
         this.musicStore = musicStore;
-        this.userLibrary = new ArrayList<>(); // Holds songs added to the library
-        this.playlists = new HashMap<>(); // Holds playlists (both user and automatic)
-        this.favoriteSongs = new ArrayList<>(); // Holds favorite songs
-        this.recentPlays = new LinkedList<>(); // For tracking the order of recently played songs
-        this.playCounts = new HashMap<>(); // For counting how many times each song has been played
+        initCollections();
+    }
+
+    private void initCollections() {
+        this.userLibrary = new LinkedHashSet<>(); // Holds songs added to the library
+        this.songsByAlbum = new HashMap<>();
+        this.songsByTitle = new HashMap<>();
+        this.songsByGenre = new HashMap<>();
+        this.sortedSongs = new SortedSongs();
+        this.playlists = new HashMap<>(); // Holds user playlists
+        this.favoritePlaylistSongs = new LinkedHashSet<>();
+        this.topRatedSongs = new LinkedHashSet<>();
+        this.automaticViews = new HashMap<>();
+        this.favoriteSongs = new LinkedHashSet<>(); // Holds favorite songs
+        this.recentPlays = new LinkedHashSet<>(); // For tracking the order of recently played songs
+        this.playCounts = new PlayCounter(TOP_PLAYS_SIZE); // For counting how many times each song has been played
+        this.songStates = new SongStates(); // Ratings and favorite flags
     }
 
     // Setter to update the MusicStore reference after deserialization
@@ -37,29 +99,118 @@ public class LibraryModel implements Serializable {
 
     public void enableTestMode() {
         this.isTestMode = true;
+        journal(LibraryJournal.TEST_MODE, null, null, 0);
+    }
+
+    // Sets (or clears, with null) the journal that records this library's changes.
+    void setJournal(LibraryJournal journal) {
+        this.journal = journal;
+    }
+
+    private void journal(byte type, String playlist, Song song, int value) {
+        if (journal != null) {
+            journal.append(type, playlist, song, value);
+        }
     }
     
     // Adds a song to the user's library if it exists in the MusicStore; then updates automatic playlists.
     public void addSongToLibrary(Song song) {
-        if (isTestMode || (musicStore != null && musicStore.getAllSongs().contains(song))) {
-            userLibrary.add(song);
-            updateAutomaticPlaylists();
+        if (isInStore(song)) {
+            ensureAutomaticPlaylists();
+            addSongUnchecked(song);
         }
     }
 
+    // Adds a song without the MusicStore check (album adds and journal replay).
+    void addSongUnchecked(Song song) {
+        if (addToLibrary(song)) {
+            playlistsOnAdd(song);
+            journal(LibraryJournal.ADD, null, song, 0);
+        }
+    }
+
+    // Adds every song that exists in the MusicStore; each new song updates only the playlists it belongs to.
+    // Returns the number of songs that were newly added.
+    public int addSongsToLibrary(Collection<Song> songs) {
+        int added = 0;
+        for (Song song : songs) {
+            if (isInStore(song) && addToLibrary(song)) {
+                ensureAutomaticPlaylists();
+                playlistsOnAdd(song);
+                journal(LibraryJournal.ADD, null, song, 0);
+                added++;
+            }
+        }
+        return added;
+    }
+
+    private boolean isInStore(Song song) {
+        return isTestMode || (musicStore != null && musicStore.containsSong(song));
+    }
+
     // Adds all songs from the specified album into the library.
     public void addAlbumToLibrary(Album album) {
+        ensureAutomaticPlaylists();
         for (Song song : album.getSongs()) {
-            userLibrary.add(song);
+            addSongUnchecked(song);
+        }
+    }
+
+    // Adds a song to the library set and its indexes; returns false if it was already there.
+    private boolean addToLibrary(Song song) {
+        if (!userLibrary.add(song)) {
+            return false;
+        }
+        librarySongsView = null;
+        songsByAlbum.computeIfAbsent(albumKey(song.getAlbum()), k -> new LinkedHashSet<>()).add(song);
+        songsByTitle.computeIfAbsent(SearchIndex.normalize(song.getTitle()), k -> new LinkedHashSet<>()).add(song);
+        songsByGenre.computeIfAbsent(song.getAlbum().getGenre(), k -> new LinkedHashSet<>()).add(song);
+        sortedSongs.add(song, songStates.getRating(song));
+        return true;
+    }
+
+    // Removes a song from the library set and its indexes; returns false if it was not there.
+    private boolean removeFromLibrary(Song song) {
+        if (!userLibrary.remove(song)) {
+            return false;
+        }
+        librarySongsView = null;
+        removeFromIndex(songsByAlbum, albumKey(song.getAlbum()), song);
+        removeFromIndex(songsByTitle, SearchIndex.normalize(song.getTitle()), song);
+        removeFromIndex(songsByGenre, song.getAlbum().getGenre(), song);
+        sortedSongs.remove(song);
+        return true;
+    }
+
+    private static void removeFromIndex(Map<String, Set<Song>> index, String key, Song song) {
+        Set<Song> songs = index.get(key);
+        if (songs != null) {
+            songs.remove(song);
+            if (songs.isEmpty()) {
+                index.remove(key);
+            }
         }
     }
 
-    // Creates a new playlist with the given name if it doesn't already exist.
+    // Albums are matched by title and artist (case-insensitive), not by instance.
+    private static String albumKey(Album album) {
+        return SearchIndex.normalize(album.getTitle()) + "\n" + SearchIndex.normalize(album.getArtist());
+    }
+
+    // Whether the given song is in the user's library.
+    public boolean containsSong(Song song) {
+        return userLibrary.contains(song);
+    }
+
+    // Creates a new playlist with the given name if it doesn't already exist and is not the name of an
+    // automatic playlist (Favorite Songs, Top Rated, Recent Plays, Top Plays or "<genre> Playlist").
     public boolean createPlaylist(String name) {
-        if (playlists.containsKey(name)) {
+        if (playlists.containsKey(name) || isAutomaticPlaylistName(name)) {
             return false;
         }
         playlists.put(name, new Playlist(name));
+        version++;
+        journal(LibraryJournal.CREATE_PLAYLIST, name, null, 0);
         return true;
     }
 
@@ -67,22 +218,29 @@ public class LibraryModel implements Serializable {
     public void addSongToPlaylist(String playlistName, Song song) {
         if (playlists.containsKey(playlistName)) {
             playlists.get(playlistName).addSong(song);
+            journal(LibraryJournal.PLAYLIST_ADD, playlistName, song, 0);
         }
     }
 
     // Marks a song as favorite; if not already marked, adds it to the favoriteSongs list and updates playlists.
     public void markSongAsFavorite(Song song) {
-        if (!favoriteSongs.contains(song)) {
-            favoriteSongs.add(song);
+        if (favoriteSongs.add(song)) {
+            favoriteSongsView = null;
         }
-        updateAutomaticPlaylists();
+        songStates.setFavorite(song);
+        ensureAutomaticPlaylists();
+        if (userLibrary.contains(song)) {
+            favoritePlaylistSongs.add(song);
+        }
+        journal(LibraryJournal.FAVORITE, null, song, 0);
     }
 
-    // Removes a song from the specified playlist if the playlist exists.
+    // Removes a song from the specified user playlist if the playlist exists.
     public void removeSongFromPlaylist(String playlistName, Song song) {
-        Playlist p = findPlaylistByName(playlistName);
+        Playlist p = playlists.get(playlistName);
         if (p != null) {
             p.removeSong(song);
+            journal(LibraryJournal.PLAYLIST_REMOVE, playlistName, song, 0);
         }
     }
 
@@ -92,22 +250,36 @@ public class LibraryModel implements Serializable {
         if (rating < 1 || rating > 5) {
             throw new IllegalArgumentException("Rating must be between 1 and 5.");
         }
-        song.setRating(rating);
+        songStates.setRating(song, rating);
         if (rating == 5) {
             markSongAsFavorite(song);
         }
-        updateAutomaticPlaylists();
+        ensureAutomaticPlaylists();
+        if (userLibrary.contains(song)) {
+            sortedSongs.updateRating(song, rating);
+            if (rating >= 4) {
+                topRatedSongs.add(song);
+            } else {
+                topRatedSongs.remove(song);
+            }
+        }
+        journal(LibraryJournal.RATE, null, song, rating);
+    }
+
+    // Returns this user's rating of the song (1-5), or 0 if they have not rated it.
+    public int getRating(Song song) {
+        return songStates.getRating(song);
+    }
+
+    // Whether the user marked the song as a favorite or rated it 5.
+    public boolean isFavorite(Song song) {
+        return songStates.isFavorite(song);
     }
 
     // Searches for songs by title (case-insensitive) and returns a list of matching songs.
     public List<Song> searchSongsByTitle(String title) {
-        List<Song> results = new ArrayList<>();
-        for (Song song : userLibrary) {
-            if (song.getTitle().equalsIgnoreCase(title)) {
-                results.add(song);
-            }
-        }
-        return results;
+        Set<Song> matches = songsByTitle.get(SearchIndex.normalize(title));
+        return matches == null ? new ArrayList<>() : new ArrayList<>(matches);
     }
 
     // Searches for albums by title (case-insensitive) based on songs in the library.
@@ -122,24 +294,41 @@ public class LibraryModel implements Serializable {
         return results;
     }
 
-    // Returns a copy of all songs in the library.
+    // Returns a read-only list of the library songs, shared until the library changes.
     public List<Song> getAllSongs() {
-        return new ArrayList<>(userLibrary);
+        if (librarySongsView == null) {
+            librarySongsView = Collections.unmodifiableList(new ArrayList<>(userLibrary));
+        }
+        return librarySongsView;
     }
 
-    // Returns a copy of all playlists.
+    // Returns the user playlists followed by the automatic ones, as a read-only list
+    // that is shared until a playlist is created or an automatic playlist changes.
     public List<Playlist> getAllPlaylists() {
-        return new ArrayList<>(playlists.values());
+        if (playlistsView != null && playlistsViewVersion == version) {
+            return playlistsView;
+        }
+        List<Playlist> all = userPlaylists();
+        for (String name : automaticPlaylistNames()) {
+            all.add(automaticPlaylist(name));
+        }
+        playlistsView = Collections.unmodifiableList(all);
+        playlistsViewVersion = version;
+        return playlistsView;
     }
 
-    // Finds and returns a playlist by its name.
+    // Finds and returns a playlist by its name; automatic playlists take precedence.
     public Playlist findPlaylistByName(String name) {
-        return playlists.get(name);
+        Playlist automatic = automaticPlaylist(name);
+        return automatic != null ? automatic : playlists.get(name);
     }
 
-    // Returns a copy of the favorite songs list.
+    // Returns a read-only list of the favorite songs, shared until another song is marked.
     public List<Song> getFavoriteSongs() {
-        return new ArrayList<>(favoriteSongs);
+        if (favoriteSongsView == null) {
+            favoriteSongsView = Collections.unmodifiableList(new ArrayList<>(favoriteSongs));
+        }
+        return favoriteSongsView;
     }
 
     // Searches for songs by artist (case-insensitive) and returns a list of matching songs.
@@ -167,9 +356,11 @@ public class LibraryModel implements Serializable {
 
     // Returns a list of unique albums from the library.
     public List<Album> getAllAlbumsInLibrary() {
-        Set<Album> albumSet = new HashSet<>();
-        for (Song s : userLibrary) {
-            albumSet.add(s.getAlbum());
+        Set<Album> albumSet = new LinkedHashSet<>();
+        for (Set<Song> albumSongs : songsByAlbum.values()) {
+            for (Song s : albumSongs) {
+                albumSet.add(s.getAlbum());
+            }
         }
         return new ArrayList<>(albumSet);
     }
@@ -185,133 +376,320 @@ public class LibraryModel implements Serializable {
 
     // Return songs sorted by title ascending (NK)
     public List<Song> getSongsSortedByTitle() {
-        List<Song> sortedSongs = new ArrayList<>(userLibrary);
-        Collections.sort(sortedSongs, Comparator.comparing(Song::getTitle, String.CASE_INSENSITIVE_ORDER));
-        return sortedSongs;
+        return sortedSongs.all(SortedSongs.Order.TITLE);
     }
 
     // Return songs sorted by artist ascending (NK)
     public List<Song> getSongsSortedByArtist() {
-        List<Song> sortedSongs = new ArrayList<>(userLibrary);
-        Collections.sort(sortedSongs, Comparator.comparing(song -> song.getAlbum().getArtist(), String.CASE_INSENSITIVE_ORDER));
-        return sortedSongs;
+        return sortedSongs.all(SortedSongs.Order.ARTIST);
     }
 
-    // Return songs in a random order; uses Collections.shuffle to simulate shuffle.
+    // Return songs in a random order. Songs are drawn lazily from the library snapshot,
+    // so playing the first few tracks does not shuffle the whole library.
     public Iterable<Song> getShuffledSongs() {
-        List<Song> copy = new ArrayList<>(userLibrary);
-        Collections.shuffle(copy);
-        return copy;
+        return getShuffledSongs(new Random().nextLong());
+    }
+
+    // Same as getShuffledSongs, with a fixed seed for a reproducible order.
+    public Iterable<Song> getShuffledSongs(long seed) {
+        return ShuffleIterator.shuffled(getAllSongs(), seed);
     }
 
     // Removes the specified song from the library.
     public void removeSongFromLibrary(Song song) {
-        if(userLibrary.contains(song)) {
-            userLibrary.remove(song);
+        ensureAutomaticPlaylists();
+        if (removeFromLibrary(song)) {
+            playlistsOnRemove(song);
+            journal(LibraryJournal.REMOVE, null, song, 0);
         }
-        updateAutomaticPlaylists();
     }
 
-    // Removes all songs from the library that belong to the specified album.
-    // A new list is created to hold songs to be removed, then removed from the main library.
+    // Removes all songs from the library that belong to the specified album (matched by title and artist).
+    // The album index is copied first because removing songs modifies it.
     public void removeAlbumFromLibrary(Album album) {
-        List<Song> songsToRemove = new ArrayList<>();
-        for (Song s : userLibrary) {
-            if (s.getAlbum().getTitle().equalsIgnoreCase(album.getTitle()) &&
-                    s.getAlbum().getArtist().equalsIgnoreCase(album.getArtist())) {
-                songsToRemove.add(s);
+        ensureAutomaticPlaylists();
+        Set<Song> songsToRemove = songsByAlbum.get(albumKey(album));
+        if (songsToRemove != null) {
+            for (Song s : new ArrayList<>(songsToRemove)) {
+                removeFromLibrary(s);
+                playlistsOnRemove(s);
+                journal(LibraryJournal.REMOVE, null, s, 0);
             }
         }
-        userLibrary.removeAll(songsToRemove);
-        updateAutomaticPlaylists();
     }
 
     // Return songs sorted by rating ascending (NK)
     public List<Song> getSongsSortedByRating() {
-        List<Song> sortedSongs = new ArrayList<>(userLibrary);
-        Collections.sort(sortedSongs, Comparator.comparingInt(Song::getRating));
-        return sortedSongs;
+        return sortedSongs.all(SortedSongs.Order.RATING);
+    }
+
+    // Returns the next page of library songs in the given order, starting after the cursor
+    // (null for the first page). Pass the returned page's next cursor to continue.
+    public SortedSongs.Page getSongsSorted(SortedSongs.Order order, SortedSongs.Cursor after, int pageSize) {
+        return sortedSongs.page(order, after, pageSize);
     }
 
     // Simulates playing a song. Updates recent plays and play count,
     // then updates automatic playlists ("Recent Plays" and "Top Plays").
+    // Costs O(log TOP_PLAYS_SIZE) regardless of how many distinct songs have been played.
     public void playSong(Song song) {
-        if (recentPlays.contains(song)) {
-            recentPlays.remove(song); // If song is already in recent plays remove it (A.D)
-        }
-        recentPlays.addFirst(song);
-        if (recentPlays.size() > 10) { // Ensure only last 10 are kept (A.D)
-            recentPlays.removeLast();
-        }
-        playCounts.put(song, playCounts.getOrDefault(song, 0) + 1);
-        // Update automatic play list for recent plays (A.D)
-        Playlist recentPlaylist = new Playlist("Recent Plays");
-        for (Song s : recentPlays) {
-            recentPlaylist.addSong(s);
-        }
-        playlists.put("Recent Plays", recentPlaylist);
-        // Update automatic playlist for top plays (A.D)
-        List<Map.Entry<Song, Integer>> entries = new ArrayList<>(playCounts.entrySet());
-        entries.sort((a, b) -> b.getValue().compareTo(a.getValue()));
-        Playlist topPlaylist = new Playlist("Top Plays");
-        int count = 0;
-        for (Map.Entry<Song, Integer> entry : entries) {
-            topPlaylist.addSong(entry.getKey());
-            count++;
-            if (count >= 10) {
-                break;
+        recentPlays.remove(song); // If song is already in recent plays move it to the end (A.D)
+        recentPlays.add(song);
+        if (recentPlays.size() > RECENT_PLAYS_SIZE) { // Ensure only last 10 are kept (A.D)
+            Iterator<Song> oldest = recentPlays.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+
+        playCounts.increment(song);
+
+        // "Recent Plays" and "Top Plays" are rebuilt only when next read (A.D)
+        version++;
+        journal(LibraryJournal.PLAY, null, song, 0);
+    }
+
+    // The automatic playlists are maintained incrementally: each library change only touches the
+    // song sets the affected song belongs to. Favorites and Top Rated exist from the first change on.
+    void ensureAutomaticPlaylists() {
+        if (!hasAutomaticPlaylists) {
+            hasAutomaticPlaylists = true;
+            journal(LibraryJournal.AUTOMATIC_PLAYLISTS, null, null, 0);
+        }
+        version++;
+    }
+
+    // Adds a newly added library song to the automatic playlists it qualifies for.
+    // Genre playlists read songsByGenre directly.
+    private void playlistsOnAdd(Song song) {
+        if (isFavorite(song)) {
+            favoritePlaylistSongs.add(song);
+        }
+        if (getRating(song) >= 4) {
+            topRatedSongs.add(song);
+        }
+    }
+
+    // Removes a song that left the library from the automatic playlists.
+    private void playlistsOnRemove(Song song) {
+        favoritePlaylistSongs.remove(song);
+        topRatedSongs.remove(song);
+    }
+
+    // Reserved names, including genre playlists that do not exist yet but could once the library has
+    // enough songs of a genre in this library or the store.
+    private boolean isAutomaticPlaylistName(String name) {
+        if (Arrays.asList(FAVORITES, TOP_RATED, RECENT_PLAYS, TOP_PLAYS).contains(name)) {
+            return true;
+        }
+        if (!name.endsWith(GENRE_SUFFIX)) {
+            return false;
+        }
+        String genre = name.substring(0, name.length() - GENRE_SUFFIX.length());
+        return songsByGenre.containsKey(genre)
+                || (musicStore != null && !genre.isEmpty() && !musicStore.findAlbumsByGenre(genre).isEmpty());
+    }
+
+    // Names of the automatic playlists that currently exist.
+    private List<String> automaticPlaylistNames() {
+        List<String> names = new ArrayList<>();
+        if (hasAutomaticPlaylists) {
+            names.add(FAVORITES);
+            names.add(TOP_RATED);
+        }
+        for (Map.Entry<String, Set<Song>> entry : songsByGenre.entrySet()) {
+            if (entry.getValue().size() >= GENRE_PLAYLIST_MIN) {
+                names.add(entry.getKey() + GENRE_SUFFIX);
             }
         }
-        playlists.put("Top Plays", topPlaylist);
+        if (!recentPlays.isEmpty()) {
+            names.add(RECENT_PLAYS);
+            names.add(TOP_PLAYS);
+        }
+        return names;
     }
 
-    // Updates the "Favorite Songs" automatic playlist based on favorites and songs rated 5.
-    private void updateFavoritePlaylist() {
-        Playlist favorites = new Playlist("Favorite Songs");
-        for (Song s : userLibrary) {
-            if (favoriteSongs.contains(s) || s.getRating() == 5) {
-                favorites.addSong(s);
+    // Current songs of the named automatic playlist, or null if no automatic playlist has that name.
+    private Collection<Song> automaticPlaylistSongs(String name) {
+        if (hasAutomaticPlaylists && name.equals(FAVORITES)) {
+            return favoritePlaylistSongs;
+        }
+        if (hasAutomaticPlaylists && name.equals(TOP_RATED)) {
+            return topRatedSongs;
+        }
+        if (!recentPlays.isEmpty() && name.equals(RECENT_PLAYS)) {
+            List<Song> mostRecentFirst = new ArrayList<>(recentPlays);
+            Collections.reverse(mostRecentFirst);
+            return mostRecentFirst;
+        }
+        if (!recentPlays.isEmpty() && name.equals(TOP_PLAYS)) {
+            return playCounts.topSongs();
+        }
+        if (name.endsWith(GENRE_SUFFIX)) {
+            Set<Song> genreSongs = songsByGenre.get(name.substring(0, name.length() - GENRE_SUFFIX.length()));
+            if (genreSongs != null && genreSongs.size() >= GENRE_PLAYLIST_MIN) {
+                return genreSongs;
             }
         }
-        playlists.put("Favorite Songs", favorites);
+        return null;
     }
 
-    // Updates the "Top Rated" automatic playlist by including songs with rating 4 or higher.
-    private void updateTopRatedPlaylist() {
-        Playlist topRated = new Playlist("Top Rated");
-        for (Song s : userLibrary) {
-            if (s.getRating() >= 4) {
-                topRated.addSong(s);
+    // Returns the named automatic playlist, building it only if the library changed since it was last read.
+    // The playlist is read-only: its songs follow the library, so edits to it would be lost.
+    private Playlist automaticPlaylist(String name) {
+        if (viewsVersion != version) {
+            automaticViews.clear();
+            viewsVersion = version;
+        }
+        Playlist view = automaticViews.get(name);
+        if (view == null) {
+            Collection<Song> songs = automaticPlaylistSongs(name);
+            if (songs == null) {
+                return null;
             }
+            view = Playlist.readOnly(name, songs);
+            automaticViews.put(name, view);
         }
-        playlists.put("Top Rated", topRated);
+        return view;
     }
 
-    // Updates genre-based automatic playlists for any genre that has at least 10 songs.
-    private void updateGenrePlaylists() {
-        Map<String, List<Song>> genreMap = new HashMap<>();
+    // Rebuilds the Favorite Songs / Top Rated song sets from scratch, in library order (after loading a
+    // saved library). Genre playlists read songsByGenre directly.
+    private void rebuildAutomaticPlaylists() {
+        favoritePlaylistSongs = new LinkedHashSet<>();
+        topRatedSongs = new LinkedHashSet<>();
         for (Song s : userLibrary) {
-            String genre = s.getAlbum().getGenre();
-            genreMap.computeIfAbsent(genre, k -> new ArrayList<>()).add(s);
-        }
-        for (Map.Entry<String, List<Song>> entry : genreMap.entrySet()) {
-            String genre = entry.getKey();
-            List<Song> songs = entry.getValue();
-            if (songs.size() >= 10) {
-                Playlist genrePlaylist = new Playlist(genre + " Playlist");
-                for (Song s : songs) {
-                    genrePlaylist.addSong(s);
+            if (isFavorite(s)) {
+                favoritePlaylistSongs.add(s);
+            }
+            if (getRating(s) >= 4) {
+                topRatedSongs.add(s);
+            }
+        }
+        automaticViews = new HashMap<>();
+        version++;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("userLibrary", new ArrayList<>(userLibrary));
+        // Automatic playlists are written out materialized, as in the original format
+        Map<String, Playlist> allPlaylists = new HashMap<>();
+        for (Playlist p : getAllPlaylists()) {
+            allPlaylists.put(p.getName(), p);
+        }
+        fields.put("playlists", allPlaylists);
+        fields.put("favoriteSongs", new ArrayList<>(favoriteSongs));
+        LinkedList<Song> mostRecentFirst = new LinkedList<>();
+        for (Song song : recentPlays) {
+            mostRecentFirst.addFirst(song);
+        }
+        fields.put("recentPlays", mostRecentFirst);
+        fields.put("playCounts", new HashMap<>(playCounts.toMap()));
+        fields.put("isTestMode", isTestMode);
+        fields.put("ratings", songStates.ratings());
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        List<Song> library = (List<Song>) fields.get("userLibrary", null);
+        Map<String, Playlist> saved = (Map<String, Playlist>) fields.get("playlists", null);
+        // Drop the saved copies of automatic playlists; they are views over the library now. Genre
+        // playlists were only ever written together with Favorite Songs, so without it a
+        // "<genre> Playlist" is one the user made.
+        boolean automaticPlaylists = saved.containsKey(FAVORITES);
+        saved.keySet().removeAll(Arrays.asList(FAVORITES, TOP_RATED, RECENT_PLAYS, TOP_PLAYS));
+        if (automaticPlaylists) {
+            for (Song song : library) {
+                saved.remove(song.getAlbum().getGenre() + GENRE_SUFFIX);
+            }
+        }
+        List<Song> recentOldestFirst = new ArrayList<>((LinkedList<Song>) fields.get("recentPlays", null));
+        Collections.reverse(recentOldestFirst);
+        List<Song> favorites = (List<Song>) fields.get("favoriteSongs", null);
+        Map<Song, Integer> counts = (Map<Song, Integer>) fields.get("playCounts", null);
+        Map<Song, Integer> ratings = (Map<Song, Integer>) fields.get("ratings", null);
+        if (ratings == null) {
+            // Saved before ratings moved out of Song: collect them from the songs themselves
+            ratings = new LinkedHashMap<>();
+            List<Collection<Song>> saves = new ArrayList<>(Arrays.asList(library, favorites, recentOldestFirst,
+                    counts.keySet()));
+            for (Playlist p : saved.values()) {
+                saves.add(p.getSongs());
+            }
+            for (Collection<Song> songs : saves) {
+                for (Song song : songs) {
+                    if (song.getSavedRating() != 0) {
+                        ratings.putIfAbsent(song, song.getSavedRating());
+                    }
                 }
-                playlists.put(genre + " Playlist", genrePlaylist);
             }
         }
+
+        initCollections();
+        restore(fields.get("isTestMode", false), automaticPlaylists, library, favorites, recentOldestFirst,
+                counts, ratings, saved.values());
     }
 
-    // Calls the update methods for automatic playlists (favorites, top rated, genre-based).
-    @SuppressWarnings("unused")
-    private void updateAutomaticPlaylists() {
-        updateFavoritePlaylist();
-        updateTopRatedPlaylist();
-        updateGenrePlaylists();
+    // Fills a freshly initialized model with saved state (shared by readObject and LibraryFile).
+    void restore(boolean testMode, boolean automaticPlaylists, Collection<Song> library, Collection<Song> favorites,
+                 Collection<Song> recentOldestFirst, Map<Song, Integer> counts, Map<Song, Integer> ratings,
+                 Collection<Playlist> userPlaylists) {
+        this.isTestMode = testMode;
+        this.hasAutomaticPlaylists = automaticPlaylists;
+        // Ratings first, so the rating order is built with them
+        for (Map.Entry<Song, Integer> entry : ratings.entrySet()) {
+            songStates.setRating(entry.getKey(), entry.getValue());
+            if (entry.getValue() == 5) {
+                songStates.setFavorite(entry.getKey());
+            }
+        }
+        for (Song song : library) {
+            addToLibrary(song);
+        }
+        favoriteSongs.addAll(favorites);
+        for (Song song : favorites) {
+            songStates.setFavorite(song);
+        }
+        recentPlays.addAll(recentOldestFirst);
+        for (Map.Entry<Song, Integer> entry : counts.entrySet()) {
+            playCounts.add(entry.getKey(), entry.getValue());
+        }
+        for (Playlist p : userPlaylists) {
+            playlists.put(p.getName(), p);
+        }
+        rebuildAutomaticPlaylists();
+    }
+
+    // Saved state for LibraryFile, in the shapes restore() takes.
+    boolean isTestMode() {
+        return isTestMode;
+    }
+
+    boolean hasAutomaticPlaylists() {
+        return hasAutomaticPlaylists;
+    }
+
+    Collection<Song> recentPlaysOldestFirst() {
+        return Collections.unmodifiableCollection(recentPlays);
+    }
+
+    Map<Song, Integer> playCountsInOrder() {
+        return playCounts.toMap();
+    }
+
+    Map<Song, Integer> ratingsInOrder() {
+        return songStates.ratings();
+    }
+
+    List<Playlist> userPlaylists() {
+        List<Playlist> user = new ArrayList<>();
+        for (Playlist p : playlists.values()) {
+            if (automaticPlaylistSongs(p.getName()) == null) {
+                user.add(p);
+            }
+        }
+        return user;
     }
 }
@@ -0,0 +1,141 @@
+package main.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Flushes library journals to disk on a background thread. A journal marks itself dirty on every
+// change; dirty journals are coalesced (a library changed 50 times is flushed once) and every
+// interval up to batchSize of them are forced to disk, so interactive commands never wait on fsync.
+// Snapshots themselves are written by LibraryJournal's compaction (temp file, fsync, rename).
+public class PersistenceService {
+    private final int batchSize;
+    private final ScheduledExecutorService executor;
+    private final LinkedHashSet<LibraryJournal> dirty;
+    private boolean closed;
+    // Metrics, guarded by this
+    private long flushCount;
+    private long failureCount;
+    private long totalFlushNanos;
+    private long maxFlushNanos;
+    private IOException lastError;
+
+    public PersistenceService(long intervalMillis, int batchSize) {
+        if (intervalMillis < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Interval and batch size must be at least 1.");
+        }
+        this.batchSize = batchSize;
+        this.dirty = new LinkedHashSet<>();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "library-persistence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::flushBatch, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Queues a journal for the next background flush (no-op if it is already queued).
+    public synchronized void markDirty(LibraryJournal journal) {
+        if (!closed) {
+            dirty.add(journal);
+        }
+    }
+
+    // Flushes every queued journal and waits for it. Throws the last failure, if any flush failed.
+    public void flush() throws IOException {
+        try {
+            executor.submit(() -> {
+                while (getQueueDepth() > 0) {
+                    flushBatch();
+                }
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing libraries", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Flushing libraries failed", e.getCause());
+        }
+        IOException error = takeLastError();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // Flushes what is queued, then stops the background thread. Later changes are not flushed.
+    public void close() throws IOException {
+        if (executor.isShutdown()) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                closed = true;
+            }
+            executor.shutdown();
+        }
+    }
+
+    // Number of journals waiting to be flushed.
+    public synchronized int getQueueDepth() {
+        return dirty.size();
+    }
+
+    public synchronized long getFlushCount() {
+        return flushCount;
+    }
+
+    public synchronized long getFailureCount() {
+        return failureCount;
+    }
+
+    // Average and worst time to flush one journal, in milliseconds.
+    public synchronized double getAverageFlushMillis() {
+        return flushCount == 0 ? 0 : totalFlushNanos / 1e6 / flushCount;
+    }
+
+    public synchronized double getMaxFlushMillis() {
+        return maxFlushNanos / 1e6;
+    }
+
+    private synchronized IOException takeLastError() {
+        IOException error = lastError;
+        lastError = null;
+        return error;
+    }
+
+    // Runs on the background thread: forces up to batchSize queued journals.
+    private void flushBatch() {
+        List<LibraryJournal> batch = new ArrayList<>(batchSize);
+        synchronized (this) {
+            Iterator<LibraryJournal> it = dirty.iterator();
+            while (it.hasNext() && batch.size() < batchSize) {
+                batch.add(it.next());
+                it.remove();
+            }
+        }
+        for (LibraryJournal journal : batch) {
+            long start = System.nanoTime();
+            try {
+                journal.force();
+                long elapsed = System.nanoTime() - start;
+                synchronized (this) {
+                    flushCount++;
+                    totalFlushNanos += elapsed;
+                    maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failureCount++;
+                    lastError = e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package main.model;
+
+import main.database.Song;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Play counts stored in primitive arrays. Each song gets a dense slot on its first play (see SongSlots);
+// after that an increment touches only int/long arrays, so replaying play events does not box a counter
+// per play. The top songs are kept in a small heap with the lowest ranked on top (rank: most plays first,
+// earlier plays first on ties), and each slot remembers its place in the heap, so a play costs
+// O(log topSize) however many songs have been played.
+public class PlayCounter {
+    private final SongSlots slots;
+    private int[] counts;
+    private long[] lastPlayed; // Sequence number of each slot's latest play
+    private int[] heapPosition; // Place of each slot in the heap + 1, or 0 if the song is not in the top
+    private long playSequence;
+
+    private final int[] heap; // Slots of the top songs; every entry ranks at or above its parent
+    private int heapSize;
+
+    // Creates an empty counter that keeps the top topSize songs ranked.
+    public PlayCounter(int topSize) {
+        this.slots = new SongSlots();
+        this.counts = new int[slots.capacity()];
+        this.lastPlayed = new long[slots.capacity()];
+        this.heapPosition = new int[slots.capacity()];
+        this.heap = new int[topSize];
+    }
+
+    // Records one play of the song and returns its new count.
+    public int increment(Song song) {
+        return increment(slotOf(song));
+    }
+
+    // Adds plays for a song in one step (used when loading saved counts). plays must be at least 1:
+    // the ranking relies on counts only growing.
+    public void add(Song song, int plays) {
+        if (plays < 1) {
+            throw new IllegalArgumentException("Plays must be at least 1.");
+        }
+        int slot = slotOf(song);
+        counts[slot] += plays - 1;
+        increment(slot);
+    }
+
+    // Returns how many times the song has been played (0 if never).
+    public int getCount(Song song) {
+        int slot = slots.find(song);
+        return slot < 0 ? 0 : counts[slot];
+    }
+
+    // Number of distinct songs played.
+    public int size() {
+        return slots.size();
+    }
+
+    // Returns the ranked top songs, most played first. Sorts the heap's few entries on each call.
+    public List<Song> topSongs() {
+        int[] ranked = Arrays.copyOf(heap, heapSize);
+        for (int i = 1; i < ranked.length; i++) {
+            int slot = ranked[i];
+            int j = i;
+            while (j > 0 && ranksAbove(slot, ranked[j - 1])) {
+                ranked[j] = ranked[j - 1];
+                j--;
+            }
+            ranked[j] = slot;
+        }
+        List<Song> top = new ArrayList<>(ranked.length);
+        for (int slot : ranked) {
+            top.add(slots.song(slot));
+        }
+        return top;
+    }
+
+    // Returns the songs played between min and max times (inclusive), in first-played order.
+    public List<Song> songsWithCountBetween(int min, int max) {
+        List<Song> matches = new ArrayList<>();
+        for (int i = 0; i < slots.size(); i++) {
+            if (counts[i] >= min && counts[i] <= max) {
+                matches.add(slots.song(i));
+            }
+        }
+        return matches;
+    }
+
+    // Returns the counts as a map in first-played order (the form the library is saved in).
+    public Map<Song, Integer> toMap() {
+        Map<Song, Integer> map = new LinkedHashMap<>();
+        for (int i = 0; i < slots.size(); i++) {
+            map.put(slots.song(i), counts[i]);
+        }
+        return map;
+    }
+
+    private int slotOf(Song song) {
+        int slot = slots.slotOf(song);
+        if (slots.capacity() > counts.length) {
+            counts = Arrays.copyOf(counts, slots.capacity());
+            lastPlayed = Arrays.copyOf(lastPlayed, slots.capacity());
+            heapPosition = Arrays.copyOf(heapPosition, slots.capacity());
+        }
+        return slot;
+    }
+
+    private int increment(int slot) {
+        int count = ++counts[slot];
+        lastPlayed[slot] = ++playSequence;
+
+        // A play only moves its song up the ranking, past songs that have not changed, so every song
+        // outside the heap ranks at most with the heap's top. A song enters by overtaking the top, and a
+        // song in the heap only has to sink below the entries it now ranks above.
+        int position = heapPosition[slot] - 1;
+        if (position < 0) {
+            if (heapSize < heap.length) {
+                place(slot, heapSize++);
+                siftUp(heapSize - 1);
+                return count;
+            }
+            if (heap.length == 0 || !ranksAbove(slot, heap[0])) {
+                return count;
+            }
+            heapPosition[heap[0]] = 0;
+            place(slot, 0);
+            position = 0;
+        }
+        siftDown(position);
+        return count;
+    }
+
+    // Moves a new entry up while it ranks below its parent.
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            if (!ranksAbove(heap[parent], heap[position])) {
+                return;
+            }
+            swap(parent, position);
+            position = parent;
+        }
+    }
+
+    // Moves an entry down while a child ranks below it.
+    private void siftDown(int position) {
+        while (true) {
+            int lowest = position;
+            for (int child = 2 * position + 1; child <= 2 * position + 2 && child < heapSize; child++) {
+                if (ranksAbove(heap[lowest], heap[child])) {
+                    lowest = child;
+                }
+            }
+            if (lowest == position) {
+                return;
+            }
+            swap(position, lowest);
+            position = lowest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int slot = heap[a];
+        place(heap[b], a);
+        place(slot, b);
+    }
+
+    private void place(int slot, int position) {
+        heap[position] = slot;
+        heapPosition[slot] = position + 1;
+    }
+
+    private boolean ranksAbove(int a, int b) {
+        return counts[a] != counts[b] ? counts[a] > counts[b] : lastPlayed[a] < lastPlayed[b];
+    }
+}
@@ -1,47 +1,145 @@
 package main.model;
 
 import main.database.Song;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Random;
 
 public class Playlist implements Serializable {
     private static final long serialVersionUID = 1L;
+    // Saved form is unchanged: the songs are written as a List
+    private static final ObjectStreamField[] serialPersistentFields = {
+            new ObjectStreamField("name", String.class),
+            new ObjectStreamField("songs", List.class)
+    };
     // The name of the playlist.
     private String name;
-    // The list of songs contained in this playlist.
-    private List<Song> songs;
+    // The songs in playlist order; hashed so membership, add and remove do not scan the list.
+    private LinkedHashSet<Song> songs;
+    // Read-only snapshot returned by getSongs; rebuilt on the first read after a change
+    private transient List<Song> songsView;
+    // Set for automatic playlists, which LibraryModel rebuilds from the library; edits would be lost
+    private transient boolean readOnly;
 
     // Constructor: Initializes a new Playlist with the specified name.
     public Playlist(String name) {
         this.name = name;
-        this.songs = new ArrayList<>(); // Initialize the songs list.
+        this.songs = new LinkedHashSet<>(); // Initialize the songs set.
     }
 
-    // Adds a song to the playlist if it is not already present.
+    // A read-only playlist holding the given songs; its mutators throw UnsupportedOperationException.
+    static Playlist readOnly(String name, Collection<Song> songs) {
+        Playlist playlist = new Playlist(name);
+        playlist.songs.addAll(songs);
+        playlist.readOnly = true;
+        return playlist;
+    }
+
+    // Whether this is an automatic playlist that cannot be edited.
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException(name + " is an automatic playlist and cannot be edited.");
+        }
+    }
+
+    // Adds a song to the end of the playlist if it is not already present.
     public void addSong(Song song) {
-        if (!songs.contains(song)) {
-            songs.add(song);
+        checkWritable();
+        if (songs.add(song)) {
+            songsView = null;
         }
     }
 
+    // Inserts a song at the given position if it is not already present. Returns false if it was.
+    public boolean addSong(int index, Song song) {
+        checkWritable();
+        if (index < 0 || index > songs.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + songs.size());
+        }
+        if (songs.contains(song)) {
+            return false;
+        }
+        List<Song> ordered = new ArrayList<>(songs);
+        ordered.add(index, song);
+        songs = new LinkedHashSet<>(ordered);
+        songsView = null;
+        return true;
+    }
+
     // Removes the specified song from the playlist.
     public void removeSong(Song song) {
-        songs.remove(song);
+        checkWritable();
+        if (songs.remove(song)) {
+            songsView = null;
+        }
+    }
+
+    // Removes and returns the song at the given position.
+    public Song removeSongAt(int index) {
+        checkWritable();
+        if (index < 0 || index >= songs.size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + songs.size());
+        }
+        Iterator<Song> it = songs.iterator();
+        for (int i = 0; i < index; i++) {
+            it.next();
+        }
+        Song removed = it.next();
+        it.remove();
+        songsView = null;
+        return removed;
+    }
+
+    // Moves the song at position from to position to, shifting the songs in between.
+    public void moveSong(int from, int to) {
+        checkWritable();
+        if (to < 0 || to >= songs.size()) {
+            throw new IndexOutOfBoundsException("Index: " + to + ", Size: " + songs.size());
+        }
+        Song song = removeSongAt(from);
+        addSong(to, song);
+    }
+
+    // Returns true if the song is in the playlist.
+    public boolean containsSong(Song song) {
+        return songs.contains(song);
+    }
+
+    // Returns the number of songs in the playlist.
+    public int size() {
+        return songs.size();
     }
 
-    // Returns a new list containing all songs in the playlist.
+    // Returns a read-only list of the songs in the playlist. Repeated calls share one list until the playlist changes.
     public List<Song> getSongs() {
-        return new ArrayList<>(songs);
+        if (songsView == null) {
+            songsView = Collections.unmodifiableList(new ArrayList<>(songs));
+        }
+        return songsView;
     }
 
     // Returns an Iterable of the songs in a random order.
-    // Uses Collections.shuffle to randomize the order.
+    // Songs are drawn lazily (see ShuffleIterator) from the getSongs snapshot.
     public Iterable<Song> getShuffledSongs() {
-        List<Song> copy = new ArrayList<>(songs);
-        Collections.shuffle(copy);
-        return copy;
+        return getShuffledSongs(new Random().nextLong());
+    }
+
+    // Same as getShuffledSongs, with a fixed seed for a reproducible order.
+    public Iterable<Song> getShuffledSongs(long seed) {
+        return ShuffleIterator.shuffled(getSongs(), seed);
     }
 
     // Returns the name of the playlist.
@@ -54,4 +152,18 @@ public class Playlist implements Serializable {
     public String toString() {
         return String.format("Playlist: %s (%d songs)", name, songs.size());
     }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("name", name);
+        fields.put("songs", new ArrayList<>(songs));
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        this.name = (String) fields.get("name", null);
+        this.songs = new LinkedHashSet<>((List<Song>) fields.get("songs", null));
+    }
 }
@@ -0,0 +1,52 @@
+package main.model;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+// Walks a list in random order without copying it: an incremental Fisher-Yates shuffle over the
+// list's indexes. Only positions that have been swapped are remembered, so each next() is O(1)
+// and memory grows with the number of songs drawn, not the size of the list.
+// The list must not change while it is being iterated (callers pass read-only snapshots).
+public class ShuffleIterator<T> implements Iterator<T> {
+    private final List<T> items;
+    private final Random random;
+    // Position -> index currently stored there, for positions that differ from the identity
+    private final Map<Integer, Integer> swapped;
+    private int drawn;
+
+    public ShuffleIterator(List<T> items, Random random) {
+        this.items = items;
+        this.random = random;
+        this.swapped = new HashMap<>();
+    }
+
+    // Returns an Iterable that shuffles the list the same way (for this seed) every time it is iterated.
+    public static <T> Iterable<T> shuffled(List<T> items, long seed) {
+        return () -> new ShuffleIterator<>(items, new Random(seed));
+    }
+
+    @Override
+    public boolean hasNext() {
+        return drawn < items.size();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int pick = drawn + random.nextInt(items.size() - drawn);
+        int index = swapped.getOrDefault(pick, pick);
+        // Position drawn is never read again; move what it held into the picked position
+        Integer displaced = swapped.remove(drawn);
+        if (pick != drawn) {
+            swapped.put(pick, displaced != null ? displaced : drawn);
+        }
+        drawn++;
+        return items.get(index);
+    }
+}
@@ -0,0 +1,80 @@
+package main.model;
+
+import main.database.Album;
+import main.database.MusicStore;
+import main.database.Song;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Turns saved song keys (album title, artist, track number, song title) back into Song objects.
+// A key resolves to, in order: a song already known to the caller (seed), the MusicStore's song,
+// or a song rebuilt from the saved album fields. The same key always yields the same Song.
+class SongLinker {
+    private final MusicStore musicStore;
+    private final Map<String, Song> songs;
+    private final Map<String, Album> albums;
+    // Albums not found in the store, rebuilt from the saved fields
+    private final Set<Album> rebuilt;
+
+    SongLinker(MusicStore musicStore) {
+        this.musicStore = musicStore;
+        this.songs = new HashMap<>();
+        this.albums = new HashMap<>();
+        this.rebuilt = new HashSet<>();
+    }
+
+    // Makes an existing song (and its album) the answer for its key.
+    void seed(Song song) {
+        Album album = song.getAlbum();
+        songs.putIfAbsent(songKey(album.getTitle(), album.getArtist(), trackOf(song), song.getTitle()), song);
+        albums.putIfAbsent(album.getTitle() + "\n" + album.getArtist(), album);
+    }
+
+    Song link(String albumTitle, String artist, String genre, int year, int track, String title) {
+        String key = songKey(albumTitle, artist, track, title);
+        Song song = songs.get(key);
+        if (song != null) {
+            return song;
+        }
+        Album album = albums.get(albumTitle + "\n" + artist);
+        if (album == null) {
+            if (musicStore != null) {
+                album = musicStore.getAlbum(albumTitle, artist);
+            }
+            if (album == null) {
+                album = new Album(albumTitle, artist, genre, year);
+                rebuilt.add(album);
+            }
+            albums.put(albumTitle + "\n" + artist, album);
+        }
+        if (rebuilt.contains(album)) {
+            song = new Song(title, album);
+            if (track >= 0) {
+                // At its saved track number, whatever order the keys arrive in, so keys round-trip
+                album.addSong(song, track);
+            }
+        } else {
+            List<Song> tracks = album.getSongs();
+            if (track >= 0 && track < tracks.size() && tracks.get(track).getTitle().equals(title)) {
+                song = tracks.get(track);
+            } else {
+                // Not in the store's copy of the album: keep it as a standalone song
+                song = new Song(title, album);
+            }
+        }
+        songs.put(key, song);
+        return song;
+    }
+
+    // Track number of the song in its album, or -1 for a song that is not one of the album's tracks.
+    static int trackOf(Song song) {
+        return song.getTrack();
+    }
+
+    private static String songKey(String albumTitle, String artist, int track, String title) {
+        return albumTitle + "\n" + artist + "\n" + track + "\n" + title;
+    }
+}
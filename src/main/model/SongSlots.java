@@ -0,0 +1,83 @@
+package main.model;
+
+import main.database.Song;
+import java.util.Arrays;
+
+// Dense slots for per-song state kept beside the shared catalog: each song gets the next slot on first
+// use and keeps it. Owners hold their state in primitive arrays indexed by slot, grown to capacity().
+// Slots are found through an open-addressing int table keyed on Song.hashCode, so lookups neither box
+// nor allocate. Store ids are not used as keys: songs read back from a saved library or rebuilt outside
+// the store have none, and must still find the slot of the equal store song.
+class SongSlots {
+    private int[] table; // slot + 1 per bucket (0 = empty), linear probing; length is a power of two
+    private Song[] songs;
+    private int size;
+
+    SongSlots() {
+        this.table = new int[32];
+        this.songs = new Song[16];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Length owners' slot arrays need: every slot handed out so far is below it.
+    int capacity() {
+        return songs.length;
+    }
+
+    Song song(int slot) {
+        return songs[slot];
+    }
+
+    // The song's slot, or -1 if it has none.
+    int find(Song song) {
+        int mask = table.length - 1;
+        for (int i = bucket(song.hashCode(), mask); table[i] != 0; i = (i + 1) & mask) {
+            int slot = table[i] - 1;
+            if (songs[slot].equals(song)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    // The song's slot, giving it the next one if it has none. May raise capacity().
+    int slotOf(Song song) {
+        int slot = find(song);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (size == songs.length) {
+            songs = Arrays.copyOf(songs, size * 2);
+        }
+        if ((size + 1) * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        songs[size] = song;
+        insert(size);
+        return size++;
+    }
+
+    private void insert(int slot) {
+        int mask = table.length - 1;
+        int i = bucket(songs[slot].hashCode(), mask);
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = slot + 1;
+    }
+
+    private void rehash(int capacity) {
+        table = new int[capacity];
+        for (int slot = 0; slot < size; slot++) {
+            insert(slot);
+        }
+    }
+
+    // Spreads the high bits down, as HashMap does, so titles that differ late still scatter.
+    private static int bucket(int hash, int mask) {
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
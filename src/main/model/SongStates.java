@@ -0,0 +1,62 @@
+package main.model;
+
+import main.database.Song;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// One user's ratings and favorite flags, kept beside the shared catalog instead of inside Song.
+// Each song the user rates or favorites gets a dense slot (see SongSlots); the rating is a byte per slot
+// and the favorite flag a bit in a packed bitset, so a library costs a few bytes per touched song.
+class SongStates {
+    private final SongSlots slots;
+    private byte[] ratings; // 0 = not rated
+    private long[] favorites;
+
+    SongStates() {
+        this.slots = new SongSlots();
+        this.ratings = new byte[slots.capacity()];
+        this.favorites = new long[(slots.capacity() + 63) >>> 6];
+    }
+
+    // Rating from 1 to 5, or 0 if the song has not been rated.
+    int getRating(Song song) {
+        int slot = slots.find(song);
+        return slot < 0 ? 0 : ratings[slot];
+    }
+
+    void setRating(Song song, int rating) {
+        int slot = slotOf(song); // Before reading the field: slotOf may grow the arrays
+        ratings[slot] = (byte) rating;
+    }
+
+    boolean isFavorite(Song song) {
+        int slot = slots.find(song);
+        return slot >= 0 && (favorites[slot >>> 6] & (1L << slot)) != 0;
+    }
+
+    void setFavorite(Song song) {
+        int slot = slotOf(song);
+        favorites[slot >>> 6] |= 1L << slot;
+    }
+
+    // Rated songs and their ratings, in the order they were first touched.
+    Map<Song, Integer> ratings() {
+        Map<Song, Integer> rated = new LinkedHashMap<>();
+        for (int i = 0; i < slots.size(); i++) {
+            if (ratings[i] != 0) {
+                rated.put(slots.song(i), (int) ratings[i]);
+            }
+        }
+        return rated;
+    }
+
+    private int slotOf(Song song) {
+        int slot = slots.slotOf(song);
+        if (slots.capacity() > ratings.length) {
+            ratings = Arrays.copyOf(ratings, slots.capacity());
+            favorites = Arrays.copyOf(favorites, (slots.capacity() + 63) >>> 6);
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,161 @@
+package main.model;
+
+import main.database.Song;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+// The library kept in title, artist and rating order at once. Each song's sort keys are captured in
+// an Entry when it is added (or re-rated), so listings and page lookups never re-sort or re-read the
+// song. Ties keep the order the songs were added in, like a stable sort of the library would.
+public class SortedSongs {
+    public enum Order { TITLE, ARTIST, RATING }
+
+    private static final Comparator<Entry> BY_TITLE = Comparator
+            .comparing((Entry e) -> e.title, String.CASE_INSENSITIVE_ORDER)
+            .thenComparingLong(e -> e.sequence);
+    private static final Comparator<Entry> BY_ARTIST = Comparator
+            .comparing((Entry e) -> e.artist, String.CASE_INSENSITIVE_ORDER)
+            .thenComparingLong(e -> e.sequence);
+    private static final Comparator<Entry> BY_RATING = Comparator
+            .comparingInt((Entry e) -> e.rating)
+            .thenComparingLong(e -> e.sequence);
+
+    private final Map<Song, Entry> entries;
+    private final TreeSet<Entry> byTitle;
+    private final TreeSet<Entry> byArtist;
+    private final TreeSet<Entry> byRating;
+    private long nextSequence;
+
+    public SortedSongs() {
+        this.entries = new HashMap<>();
+        this.byTitle = new TreeSet<>(BY_TITLE);
+        this.byArtist = new TreeSet<>(BY_ARTIST);
+        this.byRating = new TreeSet<>(BY_RATING);
+    }
+
+    // Adds a song with its current rating, after every song already present (for tie-breaking).
+    public void add(Song song, int rating) {
+        insert(new Entry(song, rating, nextSequence++));
+    }
+
+    public void remove(Song song) {
+        Entry entry = entries.remove(song);
+        if (entry != null) {
+            byTitle.remove(entry);
+            byArtist.remove(entry);
+            byRating.remove(entry);
+        }
+    }
+
+    // Re-positions a song in the rating order after its rating changed.
+    public void updateRating(Song song, int rating) {
+        Entry entry = entries.get(song);
+        if (entry != null && entry.rating != rating) {
+            remove(song);
+            // Entries are immutable so cursors that captured the old one stay valid
+            insert(new Entry(song, rating, entry.sequence));
+        }
+    }
+
+    // Returns every song in the given order.
+    public List<Song> all(Order order) {
+        List<Song> songs = new ArrayList<>(entries.size());
+        for (Entry entry : set(order)) {
+            songs.add(entry.song);
+        }
+        return songs;
+    }
+
+    // Returns up to pageSize songs that come after the cursor (from the start if the cursor is null).
+    // The cursor records the last song's sort keys rather than a position, so it stays valid when
+    // songs are added or removed between pages.
+    public Page page(Order order, Cursor after, int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1.");
+        }
+        if (after != null && after.order != order) {
+            throw new IllegalArgumentException("Cursor belongs to the " + after.order + " order.");
+        }
+        NavigableSet<Entry> rest = after == null ? set(order) : set(order).tailSet(after.last, false);
+        List<Song> songs = new ArrayList<>(Math.min(pageSize, rest.size()));
+        Iterator<Entry> it = rest.iterator();
+        Entry last = null;
+        while (songs.size() < pageSize && it.hasNext()) {
+            last = it.next();
+            songs.add(last.song);
+        }
+        Cursor next = it.hasNext() ? new Cursor(order, last) : null;
+        return new Page(Collections.unmodifiableList(songs), next);
+    }
+
+    private void insert(Entry entry) {
+        entries.put(entry.song, entry);
+        byTitle.add(entry);
+        byArtist.add(entry);
+        byRating.add(entry);
+    }
+
+    private NavigableSet<Entry> set(Order order) {
+        switch (order) {
+            case TITLE:
+                return byTitle;
+            case ARTIST:
+                return byArtist;
+            default:
+                return byRating;
+        }
+    }
+
+    // One page of songs and the cursor for the next page (null when this is the last page).
+    public static class Page {
+        private final List<Song> songs;
+        private final Cursor next;
+
+        private Page(List<Song> songs, Cursor next) {
+            this.songs = songs;
+            this.next = next;
+        }
+
+        public List<Song> getSongs() {
+            return songs;
+        }
+
+        public Cursor getNextCursor() {
+            return next;
+        }
+    }
+
+    // Opaque position in one of the orders.
+    public static class Cursor {
+        private final Order order;
+        private final Entry last;
+
+        private Cursor(Order order, Entry last) {
+            this.order = order;
+            this.last = last;
+        }
+    }
+
+    private static class Entry {
+        private final Song song;
+        private final String title;
+        private final String artist;
+        private final int rating;
+        private final long sequence;
+
+        private Entry(Song song, int rating, long sequence) {
+            this.song = song;
+            this.title = song.getTitle();
+            this.artist = song.getAlbum().getArtist();
+            this.rating = rating;
+            this.sequence = sequence;
+        }
+    }
+}
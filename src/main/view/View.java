@@ -9,7 +9,6 @@ import main.model.LibraryModel;
 import main.model.Playlist;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Scanner;
 
@@ -61,7 +60,13 @@ public class View {
         String username = scanner.nextLine().trim();
         System.out.print("Enter password: ");
         String password = scanner.nextLine().trim();
-        User user = userManager.login(username, password);
+        User user;
+        try {
+            user = userManager.login(username, password);
+        } catch (IOException e) {
+            System.out.println("Could not load your library: " + e.getMessage());
+            return false;
+        }
         if (user == null) {
             System.out.println("Login failed. Incorrect username or password.");
             return false;
@@ -85,10 +90,15 @@ public class View {
         }
         boolean success = userManager.signUp(username, password);
         if (!success) {
-            System.out.println("Username already exists.");
+            System.out.println("Username already exists, or the account could not be saved.");
             return false;
         } else {
-            currentUser = userManager.login(username, password);
+            try {
+                currentUser = userManager.login(username, password);
+            } catch (IOException e) {
+                System.out.println("Account created, but your library could not be loaded: " + e.getMessage());
+                return false;
+            }
             System.out.println("Account created. Welcome, " + currentUser.getUsername() + "!");
             return true;
         }
@@ -204,6 +214,7 @@ public class View {
             case "19":
             case "exit":
                 currentUser.saveLibraryData();
+                userManager.close();
                 System.out.println("Exiting. Goodbye!");
                 System.exit(0);
                 break;
@@ -222,7 +233,7 @@ public class View {
             Iterable<Song> shuffled = libraryModel.getShuffledSongs();
             System.out.println("Shuffled library songs:");
             for (Song s : shuffled) {
-                System.out.println(" - " + s.getTitle() + " (Artist: " + s.getAlbum().getArtist() + ", Rating: " + s.getRating() + ")");
+                System.out.println(" - " + s.getTitle() + " (Artist: " + s.getAlbum().getArtist() + ", Rating: " + libraryModel.getRating(s) + ")");
             }
         } else if (choice.equals("2")) {
             System.out.print("Enter playlist name: ");
@@ -234,7 +245,7 @@ public class View {
                 Iterable<Song> shuffled = p.getShuffledSongs();
                 System.out.println("Shuffled songs from playlist '" + p.getName() + "':");
                 for (Song s : shuffled) {
-                    System.out.println(" - " + s.getTitle() + " (Artist: " + s.getAlbum().getArtist() + ", Rating: " + s.getRating() + ")");
+                    System.out.println(" - " + s.getTitle() + " (Artist: " + s.getAlbum().getArtist() + ", Rating: " + libraryModel.getRating(s) + ")");
                 }
             }
         } else {
@@ -325,12 +336,7 @@ public class View {
             break;
         }
         case "5": {
-            List<Song> songsByGenre = new ArrayList<>();
-            for (Album album : musicStore.getAllAlbums()) {
-                if (album.getGenre().equalsIgnoreCase(query)) {
-                    songsByGenre.addAll(album.getSongs());
-                }
-            }
+            List<Song> songsByGenre = musicStore.findSongsByGenre(query);
             printSongsFromStore(songsByGenre);
             break;
         }
@@ -404,9 +410,8 @@ public class View {
         }
 
         // Check how many album songs are in the user's library (AD)
-        List<Song> userSongs = libraryModel.getAllSongs();
         long countInLibrary = album.getSongs().stream()
-            .filter(userSongs::contains)
+            .filter(libraryModel::containsSong)
             .count();
 
         if (countInLibrary == album.getSongs().size()) {
@@ -485,7 +490,7 @@ public class View {
         String playlistName = scanner.nextLine().trim();
         boolean success = libraryModel.createPlaylist(playlistName);
         if (!success) {
-            System.out.println("This playlist already exists. Please choose a different name.");
+            System.out.println("This playlist already exists or is an automatic playlist. Please choose a different name.");
         } else {
             System.out.println("Created playlist: " + playlistName);
         }
@@ -714,6 +719,7 @@ public class View {
         String choice = scanner.nextLine().trim();
         if (choice.equals("2")) {
             currentUser.saveLibraryData();
+            userManager.close();
             System.out.println("Exiting. Goodbye!");
             System.exit(0);
         }
@@ -794,7 +800,7 @@ public class View {
         } else {
             System.out.println("Sorted songs:");
             for (Song s : sortedSongs) {
-                System.out.println(" - " + s.getTitle() + " (Artist: " + s.getAlbum().getArtist() + ", Rating: " + s.getRating() + ")");
+                System.out.println(" - " + s.getTitle() + " (Artist: " + s.getAlbum().getArtist() + ", Rating: " + libraryModel.getRating(s) + ")");
             }
         }
         goBackToMainMenu();
@@ -803,7 +809,7 @@ public class View {
     public static void main(String[] args) {
         MusicStore store = new MusicStore();
         try {
-            store.loadAllAlbums("src/test/albums/albums.txt");
+            store.loadFromSnapshot("src/test/albums/albums.txt", "catalog.bin");
         } catch (IOException e) {
             System.out.println("Could not load albums from store: " + e.getMessage());
         }
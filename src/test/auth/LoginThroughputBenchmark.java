@@ -0,0 +1,94 @@
+package test.auth;
+
+import main.auth.User;
+import main.auth.UserManager;
+import main.database.MusicStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+// Login throughput against one UserManager as the thread count grows, to show whether logins scale
+// across cores (run from the project root, next to UserManagerTest's stress test):
+//
+//   java -cp <classes> test.auth.LoginThroughputBenchmark [users] [operations] [rounds]
+//
+// Each operation is a login and a logout of one of the users, so it covers password hashing and the
+// session bookkeeping; every library stays loaded (the idle bound is the user count), so no disk I/O is
+// timed. Thread counts double from 1 up to twice the available processors; each count runs rounds times
+// after one warm-up round and reports the best.
+public class LoginThroughputBenchmark {
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int operations = args.length > 1 ? Integer.parseInt(args[1]) : 40_000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int processors = Runtime.getRuntime().availableProcessors();
+
+        MusicStore store = new MusicStore();
+        store.loadAllAlbums("src/test/albums/albums.txt");
+        Path dir = Files.createTempDirectory("login-benchmark");
+        UserManager manager = new UserManager(store, dir.toFile(), users);
+        try {
+            for (int i = 0; i < users; i++) {
+                manager.signUp("user" + i, "pw" + i);
+            }
+            System.out.println(processors + " processors, " + users + " users, " + operations + " logins per round");
+            for (int threads = 1; threads <= 2 * processors; threads *= 2) {
+                run(manager, users, operations, threads); // Warm-up
+                double best = 0;
+                for (int round = 0; round < rounds; round++) {
+                    best = Math.max(best, run(manager, users, operations, threads));
+                }
+                System.out.printf("%2d threads: %,.0f logins/s%n", threads, best);
+            }
+        } finally {
+            manager.close();
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    // Runs the operations split across the threads and returns logins per second.
+    private static double run(UserManager manager, int users, int operations, int threads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            workers.add(pool.submit(() -> {
+                start.await();
+                for (int i = first; i < operations; i += threads) {
+                    int user = (i * 31) % users;
+                    login(manager, "user" + user, "pw" + user);
+                }
+                return null;
+            }));
+        }
+        long began = System.nanoTime();
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        long elapsed = System.nanoTime() - began;
+        pool.shutdown();
+        return operations / (elapsed / 1e9);
+    }
+
+    private static void login(UserManager manager, String username, String password) throws IOException {
+        User user = manager.login(username, password);
+        if (user == null) {
+            throw new IllegalStateException("Login failed for " + username);
+        }
+        manager.logout(user);
+    }
+}
@@ -0,0 +1,246 @@
+package test.auth;
+
+import main.auth.User;
+import main.auth.UserManager;
+import main.database.MusicStore;
+import main.database.Song;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserManagerTest {
+    private MusicStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new MusicStore();
+        store.loadAllAlbums("src/test/albums/albums.txt");
+    }
+
+    @Test
+    void testLibraryLoadsOnLogin(@TempDir Path dir) throws IOException {
+        UserManager manager = new UserManager(store, dir.toFile(), 4);
+        assertTrue(manager.signUp("ana", "pw"));
+        assertEquals(0, manager.getLoadedLibraryCount());
+        assertNull(manager.login("ana", "wrong"));
+        assertEquals(0, manager.getLoadedLibraryCount());
+
+        User ana = manager.login("ana", "pw");
+        Song song = store.getAllSongs().get(0);
+        ana.getLibrary().addSongToLibrary(song);
+        assertEquals(1, manager.getLoadedLibraryCount());
+        manager.close();
+
+        UserManager restarted = new UserManager(store, dir.toFile(), 4);
+        assertEquals(0, restarted.getLoadedLibraryCount());
+        assertEquals(List.of(song), restarted.login("ana", "pw").getLibrary().getAllSongs());
+        restarted.close();
+    }
+
+    @Test
+    void testIdleLibrariesAreEvictedLeastRecentlyUsedFirst(@TempDir Path dir) throws IOException {
+        UserManager manager = new UserManager(store, dir.toFile(), 1);
+        for (String name : List.of("ana", "ben", "cy")) {
+            manager.signUp(name, "pw");
+        }
+        User ana = manager.login("ana", "pw");
+        User ben = manager.login("ben", "pw");
+        User cy = manager.login("cy", "pw");
+        Song song = store.getAllSongs().get(0);
+        ana.getLibrary().addSongToLibrary(song);
+
+        manager.logout(ana);
+        assertEquals(3, manager.getLoadedLibraryCount());
+        manager.logout(ben);
+        assertFalse(ana.isLibraryLoaded());
+        assertTrue(ben.isLibraryLoaded());
+        assertTrue(cy.isLibraryLoaded());
+
+        // An evicted library is read back from disk on the next login
+        assertEquals(List.of(song), manager.login("ana", "pw").getLibrary().getAllSongs());
+        manager.close();
+    }
+
+    @Test
+    void testPrewarmLoadsHotUsersInParallel(@TempDir Path dir) throws IOException {
+        UserManager manager = new UserManager(store, dir.toFile(), 2);
+        for (String name : List.of("ana", "ben", "cy")) {
+            manager.signUp(name, "pw");
+        }
+        manager.prewarm(List.of("ana", "ben", "cy", "nobody"), 3);
+        assertEquals(2, manager.getLoadedLibraryCount());
+        manager.close();
+        assertEquals(0, manager.getLoadedLibraryCount());
+    }
+
+    @Test
+    void testUnreadableLibraryFailsLoginAndIsLeftAlone(@TempDir Path dir) throws IOException {
+        UserManager manager = new UserManager(store, dir.toFile(), 4);
+        manager.signUp("ana", "pw");
+        manager.signUp("ben", "pw");
+        Path lib = dir.resolve("library_ana.lib");
+        Files.write(lib, "not a library".getBytes(StandardCharsets.UTF_8));
+
+        assertThrows(IOException.class, () -> manager.login("ana", "pw"));
+        assertEquals(0, manager.getLoadedLibraryCount());
+        manager.prewarm(List.of("ana", "ben"), 2);
+        assertEquals(1, manager.getLoadedLibraryCount()); // ben still loads
+        manager.close();
+        assertEquals("not a library", new String(Files.readAllBytes(lib), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testRegistrySurvivesTornAppend(@TempDir Path dir) throws IOException {
+        UserManager manager = new UserManager(store, dir.toFile(), 4);
+        manager.signUp("ana", "pw");
+        manager.signUp("ben", "pw");
+        manager.close();
+        assertEquals(2, Files.readAllLines(dir.resolve("users.txt")).size());
+
+        // A crash in the middle of appending the next signup
+        Files.write(dir.resolve("users.txt"), "cy,half-writ".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        manager = new UserManager(store, dir.toFile(), 4);
+        assertNotNull(manager.login("ana", "pw"));
+        assertNotNull(manager.login("ben", "pw"));
+        assertTrue(manager.signUp("cy", "pw"));
+        manager.close();
+
+        manager = new UserManager(store, dir.toFile(), 4);
+        assertNotNull(manager.login("cy", "pw"));
+        assertEquals(3, Files.readAllLines(dir.resolve("users.txt")).size());
+        manager.close();
+    }
+
+    @Test
+    void testRegistryKeepsWholeLastLineWithoutNewline(@TempDir Path dir) throws IOException {
+        UserManager manager = new UserManager(store, dir.toFile(), 4);
+        manager.signUp("ana", "pw");
+        manager.signUp("ben", "pw");
+        manager.close();
+
+        // Saved by an editor that drops the final newline
+        Path users = dir.resolve("users.txt");
+        String text = new String(Files.readAllBytes(users), StandardCharsets.UTF_8);
+        Files.write(users, text.substring(0, text.length() - 1).getBytes(StandardCharsets.UTF_8));
+        manager = new UserManager(store, dir.toFile(), 4);
+        assertNotNull(manager.login("ben", "pw"));
+        assertTrue(manager.signUp("cy", "pw"));
+        manager.close();
+
+        manager = new UserManager(store, dir.toFile(), 4);
+        for (String name : List.of("ana", "ben", "cy")) {
+            assertNotNull(manager.login(name, "pw"));
+        }
+        assertEquals(3, Files.readAllLines(users).size());
+        manager.close();
+    }
+
+    @Test
+    void testSignUpThatCannotBeSavedCreatesNoAccount(@TempDir Path dir) throws IOException {
+        UserManager manager = new UserManager(store, dir.toFile(), 4);
+        manager.signUp("ana", "pw");
+        manager.close(); // The registry is closed, so the next append fails
+
+        assertFalse(manager.signUp("ben", "pw"));
+        assertNull(manager.login("ben", "pw"));
+        manager = new UserManager(store, dir.toFile(), 4);
+        assertNull(manager.login("ben", "pw"));
+        assertTrue(manager.signUp("ben", "pw"));
+        manager.close();
+    }
+
+    @Test
+    void testSignUpFailsCleanlyWhenTheRegistryCannotBeOpened(@TempDir Path dir) throws IOException {
+        Files.createDirectory(dir.resolve("users.txt")); // Not a file the registry can open
+        UserManager manager = new UserManager(store, dir.toFile(), 4);
+        assertFalse(manager.signUp("ana", "pw"));
+        assertNull(manager.login("ana", "pw"));
+        assertFalse(manager.signUp("ana", "pw"));
+        manager.close();
+    }
+
+    @Test
+    void testRegistryIsCompactedOnceManyLinesAreDead(@TempDir Path dir) throws IOException {
+        UserManager manager = new UserManager(store, dir.toFile(), 4);
+        manager.signUp("ana", "pw");
+        manager.close();
+        StringBuilder junk = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            junk.append("not a record\n");
+        }
+        Files.write(dir.resolve("users.txt"), junk.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        manager = new UserManager(store, dir.toFile(), 4);
+        assertEquals(1, Files.readAllLines(dir.resolve("users.txt")).size());
+        assertTrue(manager.signUp("ben", "pw"));
+        assertNotNull(manager.login("ana", "pw"));
+        manager.close();
+        assertEquals(2, Files.readAllLines(dir.resolve("users.txt")).size());
+    }
+
+    @Test
+    void testConcurrentSignupsAndLogins(@TempDir Path dir) throws Exception {
+        UserManager manager = new UserManager(store, dir.toFile(), 8);
+        int threads = 8;
+        int names = 50;
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger loggedIn = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                start.await();
+                // Every thread races for every name, then logs in and out of each account
+                for (int i = 0; i < names; i++) {
+                    if (manager.signUp("user" + i, "pw" + i)) {
+                        created.incrementAndGet();
+                    }
+                }
+                for (int i = 0; i < names; i++) {
+                    User user = manager.login("user" + i, "pw" + i);
+                    if (user != null && user.getLibrary() != null) {
+                        loggedIn.incrementAndGet();
+                        manager.logout(user);
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> worker : workers) {
+            worker.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(names, created.get());
+        assertEquals(threads * names, loggedIn.get());
+        assertTrue(manager.getLoadedLibraryCount() <= 8);
+        manager.close();
+
+        assertEquals(names, Files.readAllLines(dir.resolve("users.txt")).size());
+        UserManager restarted = new UserManager(store, dir.toFile(), 8);
+        for (int i = 0; i < names; i++) {
+            assertNotNull(restarted.login("user" + i, "pw" + i));
+        }
+        restarted.close();
+    }
+}
@@ -4,9 +4,24 @@ import main.database.MusicStore;
 import main.database.Album;
 import main.database.Song;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -115,4 +130,366 @@ public class MusicStoreTest {
         List<Album> albumsByArtist = store.findAlbumsByArtist("Test Artist");
         assertEquals(2, albumsByArtist.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testParallelLoadMatchesSequential() {
+        MusicStore sequential = new MusicStore();
+        MusicStore parallel = new MusicStore();
+        try {
+            sequential.loadAllAlbums("src/test/albums/albums.txt");
+            parallel.loadAllAlbumsParallel("src/test/albums/albums.txt", 4);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        assertEquals(sequential.getAllAlbums().size(), parallel.getAllAlbums().size());
+        assertEquals(sequential.getAllSongs().size(), parallel.getAllSongs().size());
+        for (Album album : sequential.getAllAlbums()) {
+            List<Album> match = parallel.findAlbumsByTitle(album.getTitle());
+            assertEquals(1, match.size());
+            assertEquals(album.getArtist(), match.get(0).getArtist());
+            assertEquals(album.getSongs().size(), match.get(0).getSongs().size());
+        }
+        assertTrue(parallel.getLoadTimings().containsKey("parse"));
+    }
+
+    @Test
+    public void testParallelLoadRejectsZeroThreads() {
+        MusicStore store = new MusicStore();
+        assertThrows(IllegalArgumentException.class,
+                () -> store.loadAllAlbumsParallel("src/test/albums/albums.txt", 0));
+    }
+
+    @Test
+    public void testFindAlbumsByGenre() {
+        MusicStore store = new MusicStore();
+        store.addAlbum(new Album("Album One", "Test Artist", "Pop", 2020));
+        store.addAlbum(new Album("Album Two", "Other Artist", "Rock", 2021));
+
+        List<Album> pop = store.findAlbumsByGenre("pop");
+        assertEquals(1, pop.size());
+        assertEquals("Album One", pop.get(0).getTitle());
+    }
+
+    @Test
+    public void testSearchSongsMatchesAllTerms() {
+        MusicStore store = new MusicStore();
+        try {
+            store.loadAllAlbums("src/test/albums/albums.txt");
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        List<Song> results = store.searchSongs("adele DEEP");
+        assertEquals(1, results.size());
+        assertEquals("Rolling in the Deep", results.get(0).getTitle());
+        assertTrue(store.searchSongs("adele coldplay").isEmpty());
+    }
+
+    @Test
+    public void testFindByPrefix() {
+        MusicStore store = new MusicStore();
+        try {
+            store.loadAllAlbums("src/test/albums/albums.txt");
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        List<Song> songs = store.findSongsByPrefix("scien");
+        assertFalse(songs.isEmpty());
+        assertTrue(songs.stream().anyMatch(s -> s.getTitle().equals("The Scientist")));
+        List<Album> albums = store.findAlbumsByPrefix("cold");
+        assertEquals(1, albums.size());
+        assertEquals("A Rush of Blood to the Head", albums.get(0).getTitle());
+    }
+
+    @Test
+    public void testFindIgnoresAccentsAndCase() {
+        MusicStore store = new MusicStore();
+        store.addAlbum(new Album("Cuando Los Angeles Lloran", "Man\u00e1", "Latin", 1995));
+
+        assertEquals(1, store.findAlbumsByArtist("MANA").size());
+        assertEquals(1, store.findAlbumsByTitle("cuando los \u00c1ngeles lloran").size());
+    }
+
+    @Test
+    public void testFindSongsByTitleIgnoresCase() {
+        MusicStore store = new MusicStore();
+        try {
+            store.loadAllAlbums("src/test/albums/albums.txt");
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        List<Song> songs = store.findSongsByTitle("rolling in the deep");
+        assertEquals(1, songs.size());
+        assertEquals("Rolling in the Deep", songs.get(0).getTitle());
+        assertThrows(UnsupportedOperationException.class, () -> songs.add(songs.get(0)));
+    }
+
+    @Test
+    public void testFindSongsByTitleKeepsDuplicates() {
+        MusicStore store = new MusicStore();
+        Album album1 = new Album("Album One", "Test Artist", "Pop", 2020);
+        Album album2 = new Album("Album Two", "Other Artist", "Pop", 2021);
+        store.addSong(new Song("Same Song", album1));
+        store.addSong(new Song("SAME SONG", album2));
+
+        assertEquals(2, store.findSongsByTitle("same song").size());
+    }
+
+    @Test
+    public void testFindSongsByGenre() {
+        MusicStore store = new MusicStore();
+        Album pop = new Album("Album One", "Test Artist", "Pop", 2020);
+        Album rock = new Album("Album Two", "Test Artist", "Rock", 2021);
+        Song popSong = new Song("Song A", pop);
+        Song rockSong = new Song("Song B", rock);
+        pop.addSong(popSong);
+        rock.addSong(rockSong);
+        store.addAlbum(pop);
+        store.addAlbum(rock);
+        store.addSong(popSong);
+        store.addSong(rockSong);
+
+        List<Song> songs = store.findSongsByGenre("POP");
+        assertEquals(1, songs.size());
+        assertEquals(popSong, songs.get(0));
+        assertEquals(2, store.findSongsByArtist("test artist").size());
+    }
+
+    @Test
+    public void testReplacedAlbumLeavesArtistIndex() {
+        MusicStore store = new MusicStore();
+        store.addAlbum(new Album("Same Title", "First Artist", "Pop", 2020));
+        store.addAlbum(new Album("Same Title", "Second Artist", "Rock", 2021));
+
+        assertTrue(store.findAlbumsByArtist("First Artist").isEmpty());
+        assertTrue(store.findAlbumsByGenre("Pop").isEmpty());
+        assertEquals(1, store.findAlbumsByArtist("Second Artist").size());
+    }
+
+    @Test
+    public void testSnapshotMatchesTextCatalog(@TempDir Path dir) {
+        String snapshot = dir.resolve("catalog.bin").toString();
+        MusicStore text = new MusicStore();
+        MusicStore compiled = new MusicStore();
+        try {
+            text.loadAllAlbums("src/test/albums/albums.txt");
+            new MusicStore().loadFromSnapshot("src/test/albums/albums.txt", snapshot);
+            compiled.loadFromSnapshot("src/test/albums/albums.txt", snapshot);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        assertTrue(compiled.getLoadTimings().containsKey("snapshot"));
+        assertEquals(text.getAllAlbums().size(), compiled.getAllAlbums().size());
+        assertEquals(text.getAllSongs().size(), compiled.getAllSongs().size());
+        Album rush = compiled.findAlbumsByTitle("A Rush of Blood to the Head").get(0);
+        assertEquals("Coldplay", rush.getArtist());
+        assertEquals(2002, rush.getYear());
+        assertEquals("The Scientist", rush.getSongs().get(3).getTitle());
+    }
+
+    @Test
+    public void testCorruptSnapshotCountsFallBackToTheTextCatalog(@TempDir Path dir) throws IOException {
+        Path snapshot = dir.resolve("catalog.bin");
+        new MusicStore().loadFromSnapshot("src/test/albums/albums.txt", snapshot.toString());
+        byte[] valid = Files.readAllBytes(snapshot);
+        ByteBuffer header = ByteBuffer.wrap(valid);
+        // Header: magic, version, fingerprint, then the string, album and song counts at 16, 20 and 24;
+        // the string table, each entry led by its length, follows the album and song records
+        int firstString = 28 + header.getInt(20) * 24 + header.getInt(24) * 8;
+        for (int offset : new int[] {16, 20, 24, firstString}) {
+            for (int value : new int[] {Integer.MAX_VALUE, -1, valid.length}) {
+                byte[] corrupt = valid.clone();
+                ByteBuffer.wrap(corrupt).putInt(offset, value);
+                Files.write(snapshot, corrupt);
+                MusicStore store = new MusicStore();
+                store.loadFromSnapshot("src/test/albums/albums.txt", snapshot.toString());
+                assertTrue(store.getLoadTimings().containsKey("parse"), "offset " + offset + " value " + value);
+                assertEquals("The Scientist",
+                        store.findAlbumsByTitle("A Rush of Blood to the Head").get(0).getSongs().get(3).getTitle());
+            }
+        }
+    }
+
+    @Test
+    public void testSnapshotThatCannotBeWrittenStillLoadsTheCatalog(@TempDir Path dir) throws IOException {
+        MusicStore store = new MusicStore();
+        store.loadFromSnapshot("src/test/albums/albums.txt", dir.resolve("missing/catalog.bin").toString());
+        assertFalse(store.getAllAlbums().isEmpty());
+        assertFalse(store.getLoadTimings().containsKey("write"));
+    }
+
+    @Test
+    public void testLazyLoadParsesOnDemand() {
+        MusicStore store = new MusicStore();
+        try {
+            store.loadAlbumIndex("src/test/albums/albums.txt", 3);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        assertEquals(0, store.getResidentAlbumCount());
+
+        List<Album> albums = store.findAlbumsByTitle("21");
+        assertEquals(1, albums.size());
+        assertEquals("Adele", albums.get(0).getArtist());
+        assertEquals(1, store.getResidentAlbumCount());
+
+        // Only the album that has the song is parsed
+        assertFalse(store.findSongsByTitle("the scientist").isEmpty());
+        assertEquals(2, store.getResidentAlbumCount());
+        assertEquals(1, store.searchAlbums("coldplay rush").size());
+        assertEquals(2, store.getResidentAlbumCount());
+    }
+
+    @Test
+    public void testLazyLoadFindsEvictedAndAddedAlbums() {
+        MusicStore store = new MusicStore();
+        try {
+            store.loadAlbumIndex("src/test/albums/albums.txt", 1);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        Song scientist = store.findSongsByTitle("The Scientist").get(0);
+        assertFalse(store.findAlbumsByTitle("21").isEmpty()); // Evicts A Rush of Blood to the Head
+        assertTrue(store.containsSong(scientist));
+
+        Album album = new Album("Test Album", "Test Artist", "Rock", 2024);
+        Song song = new Song("The Scientist", album);
+        album.addSong(song);
+        store.addAlbum(album);
+        store.addSong(song);
+        assertEquals(2, store.findSongsByTitle("the scientist").size());
+        assertTrue(store.findAlbumsByGenre("Rock").contains(album));
+        assertTrue(store.searchSongs("test scientist").contains(song));
+        assertTrue(store.findAlbumsByPrefix("tes").contains(album));
+        assertTrue(store.getAllAlbums().contains(album));
+        assertTrue(store.containsSong(song));
+    }
+
+    @Test
+    public void testLazyLoadMatchesEagerLoad() {
+        MusicStore eager = new MusicStore();
+        MusicStore lazy = new MusicStore();
+        try {
+            eager.loadAllAlbums("src/test/albums/albums.txt");
+            lazy.loadAlbumIndex("src/test/albums/albums.txt", 2);
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+        assertEquals(eager.getAllSongs().size(), lazy.getAllSongs().size());
+        assertEquals(eager.getAllAlbums().size(), lazy.getAllAlbums().size());
+        assertEquals(eager.findSongsByArtist("Adele").size(), lazy.findSongsByArtist("Adele").size());
+        assertEquals(eager.findSongsByGenre("Pop").size(), lazy.findSongsByGenre("Pop").size());
+        assertTrue(lazy.getResidentAlbumCount() <= 2);
+    }
+
+    @Test
+    public void testAlbumsShareArtistAndGenreStrings() {
+        Album first = new Album("Album One", new String("Shared Artist"), new String("Folk"), 2020);
+        Album second = new Album("Album Two", new String("Shared Artist"), new String("Folk"), 2021);
+
+        assertSame(first.getArtist(), second.getArtist());
+        assertSame(first.getGenre(), second.getGenre());
+        assertEquals("Shared Artist", second.getArtist());
+    }
+
+    @Test
+    public void testContainsSong() {
+        MusicStore store = new MusicStore();
+        Album album = new Album("Test Album", "Test Artist", "Rock", 2024);
+        Song song = new Song("Test Song", album);
+        Song other = new Song("Test Song", album);
+        store.addSong(song);
+
+        assertTrue(store.containsSong(song));
+        assertFalse(store.containsSong(other));
+    }
+
+    @Test
+    public void testIdsAreStableAcrossLoadsAndCopies() throws IOException, ClassNotFoundException {
+        MusicStore store = new MusicStore();
+        store.loadAllAlbums("src/test/albums/albums.txt");
+        MusicStore reloaded = new MusicStore();
+        reloaded.loadAllAlbums("src/test/albums/albums.txt");
+        Song song = store.getAllAlbums().get(0).getSongs().get(1);
+        Song same = reloaded.getSong(song.getId());
+
+        assertNotSame(song, same);
+        assertEquals(song, same);
+        assertEquals(song.hashCode(), same.hashCode());
+        assertSame(song, store.getSong(song.getId()));
+        assertSame(song.getAlbum(), store.getAlbum(song.getAlbum().getId()));
+
+        // A copy read back from a saved library is the same catalog song
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(song);
+        }
+        Song copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (Song) in.readObject();
+        }
+        assertEquals(song, copy);
+        assertTrue(store.containsSong(copy));
+        assertNotEquals(song, store.getAllAlbums().get(0).getSongs().get(0));
+    }
+
+    @Test
+    public void testSongHashDoesNotChangeWhenItJoinsAnAlbum() {
+        Album album = new Album("Test Album", "Test Artist", "Rock", 2024);
+        Song song = new Song("Test Song", album);
+        Set<Song> set = new HashSet<>();
+        set.add(song);
+        int hash = song.hashCode();
+
+        album.addSong(song);
+        new MusicStore().addSong(song);
+        assertEquals(hash, song.hashCode());
+        assertTrue(set.contains(song));
+    }
+
+    @Test
+    public void testLazyStoreKeepsIdsAcrossEviction() throws IOException {
+        MusicStore store = new MusicStore();
+        store.loadAlbumIndex("src/test/albums/albums.txt", 1);
+        Song scientist = store.findSongsByTitle("The Scientist").get(0);
+        int id = scientist.getId();
+        store.findAlbumsByTitle("21"); // Evicts it
+
+        Song reparsed = store.getSong(id);
+        assertNotSame(scientist, reparsed);
+        assertEquals(scientist, reparsed);
+        assertEquals(id, reparsed.getId());
+        assertSame(reparsed.getAlbum(), store.getAlbum(reparsed.getAlbum().getId()));
+    }
+
+    @Test
+    public void testLazyStoreIsSafeToShareAcrossThreads() throws Exception {
+        MusicStore eager = new MusicStore();
+        eager.loadAllAlbums("src/test/albums/albums.txt");
+        MusicStore lazy = new MusicStore();
+        lazy.loadAlbumIndex("src/test/albums/albums.txt", 1); // Nearly every lookup evicts an album
+        List<Song> songs = eager.getAllSongs();
+        List<Album> albums = eager.getAllAlbums();
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int offset = t;
+            workers.add(pool.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    Song song = songs.get((i * 7 + offset) % songs.size());
+                    Album album = albums.get((i + offset) % albums.size());
+                    assertTrue(lazy.containsSong(song));
+                    assertTrue(lazy.findAlbumsByGenre(album.getGenre()).contains(album));
+                    assertEquals(album, lazy.getAlbum(album.getTitle(), album.getArtist()));
+                    assertFalse(lazy.findSongsByTitle(song.getTitle()).isEmpty());
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        assertEquals(1, lazy.getResidentAlbumCount());
+    }
+}
@@ -0,0 +1,105 @@
+package test.model;
+
+import main.database.Album;
+import main.database.MusicStore;
+import main.database.Song;
+import main.model.LibraryFile;
+import main.model.LibraryModel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LibraryFileTest {
+
+    @Test
+    public void testRoundTripRelinksToStoreSongs(@TempDir Path dir) throws IOException {
+        MusicStore store = new MusicStore();
+        store.loadAllAlbums("src/test/albums/albums.txt");
+        Album album = store.getAllAlbums().get(0);
+        Song first = album.getSongs().get(0);
+        Song second = album.getSongs().get(1);
+
+        LibraryModel library = new LibraryModel(store);
+        library.addAlbumToLibrary(album);
+        library.rateSong(second, 4);
+        library.markSongAsFavorite(first);
+        library.createPlaylist("Mix");
+        library.addSongToPlaylist("Mix", second);
+        library.playSong(second);
+        library.playSong(first);
+        library.playSong(second);
+
+        String path = dir.resolve("library.lib").toString();
+        LibraryFile.write(library, path);
+        LibraryModel loaded = LibraryFile.read(path, store);
+
+        // Same Song objects as the store, not copies
+        assertEquals(library.getAllSongs(), loaded.getAllSongs());
+        assertSame(first, loaded.getAllSongs().get(0));
+        assertEquals(List.of(first), loaded.getFavoriteSongs());
+        assertEquals(List.of(second), loaded.findPlaylistByName("Mix").getSongs());
+        assertEquals(List.of(second, first), loaded.findPlaylistByName("Recent Plays").getSongs());
+        assertEquals(List.of(second, first), loaded.findPlaylistByName("Top Plays").getSongs());
+        assertEquals(library.getAllPlaylists().size(), loaded.getAllPlaylists().size());
+    }
+
+    @Test
+    public void testRoundTripWithoutStore(@TempDir Path dir) throws IOException {
+        LibraryModel library = new LibraryModel(null);
+        library.enableTestMode();
+        Album album = new Album("Loose Album", "Loose Artist", "Jazz", 1999);
+        Song song = new Song("Loose Song", album);
+        album.addSong(song);
+        library.addSongToLibrary(song);
+        library.rateSong(song, 5);
+
+        String path = dir.resolve("library.lib").toString();
+        LibraryFile.write(library, path);
+        LibraryModel loaded = LibraryFile.read(path, null);
+
+        Song restored = loaded.getAllSongs().get(0);
+        assertEquals("Loose Song", restored.getTitle());
+        assertEquals("Loose Artist", restored.getAlbum().getArtist());
+        assertEquals(5, loaded.getRating(restored));
+        assertEquals(List.of(restored), loaded.findPlaylistByName("Top Rated").getSongs());
+    }
+
+    @Test
+    public void testRejectsOtherFiles(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("library.lib");
+        Files.write(path, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> LibraryFile.read(path.toString(), null));
+        assertNull(LibraryFile.read(dir.resolve("missing.lib").toString(), null));
+    }
+
+    @Test
+    public void testRejectsCorruptCountsWithoutAllocating(@TempDir Path dir) throws IOException {
+        LibraryModel library = new LibraryModel(null);
+        library.enableTestMode();
+        Album album = new Album("Loose Album", "Loose Artist", "Jazz", 1999);
+        Song song = new Song("Loose Song", album);
+        album.addSong(song);
+        library.addSongToLibrary(song);
+        Path path = dir.resolve("library.lib");
+        LibraryFile.write(library, path.toString());
+        byte[] valid = Files.readAllBytes(path);
+
+        // Header is magic, version, flags and journal sequence: the string count starts at byte 20,
+        // the first string's length at byte 24
+        for (int offset : new int[] {20, 24}) {
+            for (int count : new int[] {Integer.MAX_VALUE, -1, valid.length}) {
+                byte[] corrupt = valid.clone();
+                ByteBuffer.wrap(corrupt).putInt(offset, count);
+                Files.write(path, corrupt);
+                assertThrows(IOException.class, () -> LibraryFile.read(path.toString(), null));
+            }
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package test.model;
+
+import main.database.Album;
+import main.database.MusicStore;
+import main.database.Song;
+import main.model.LibraryJournal;
+import main.model.LibraryModel;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LibraryJournalTest {
+    // Record types, as LibraryJournal numbers them
+    private static final byte RATE = 3;
+    private static final byte CREATE_PLAYLIST = 6;
+
+    private MusicStore store;
+    private Album album;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new MusicStore();
+        store.loadAllAlbums("src/test/albums/albums.txt");
+        album = store.getAllAlbums().get(0);
+    }
+
+    @Test
+    void testChangesSurviveReopen(@TempDir Path dir) throws IOException {
+        String base = dir.resolve("library_u").toString();
+        LibraryJournal journal = LibraryJournal.open(base, store);
+        LibraryModel library = journal.getLibrary();
+        Song first = album.getSongs().get(0);
+        Song second = album.getSongs().get(1);
+        library.addAlbumToLibrary(album);
+        library.removeSongFromLibrary(album.getSongs().get(2));
+        library.rateSong(second, 2);
+        library.markSongAsFavorite(first);
+        library.createPlaylist("Mix");
+        library.addSongToPlaylist("Mix", second);
+        library.addSongToPlaylist("Mix", first);
+        library.removeSongFromPlaylist("Mix", second);
+        library.playSong(second);
+        library.playSong(first);
+        journal.sync();
+        assertFalse(Files.exists(dir.resolve("library_u.lib")));
+
+        LibraryModel reopened = LibraryJournal.open(base, store).getLibrary();
+        assertEquals(library.getAllSongs(), reopened.getAllSongs());
+        assertEquals(List.of(first), reopened.getFavoriteSongs());
+        assertEquals(List.of(first), reopened.findPlaylistByName("Mix").getSongs());
+        assertEquals(List.of(first, second), reopened.findPlaylistByName("Recent Plays").getSongs());
+        assertEquals(library.getAllPlaylists().size(), reopened.getAllPlaylists().size());
+        assertSame(first, reopened.getAllSongs().get(0));
+    }
+
+    @Test
+    void testSongsOfAlbumsMissingFromTheStoreKeepTheirKeysAcrossReopens(@TempDir Path dir) throws IOException {
+        String base = dir.resolve("library_u").toString();
+        LibraryJournal journal = LibraryJournal.open(base, store);
+        LibraryModel library = journal.getLibrary();
+        library.enableTestMode();
+        Album ghost = new Album("Ghost Album", "Ghost Artist", "Jazz", 1999);
+        for (int i = 0; i < 6; i++) {
+            ghost.addSong(new Song("s" + i, ghost));
+        }
+        // Out of track order, so the rebuilt album sees the keys in a different order than the tracks
+        for (int i : new int[] {0, 4, 3, 2}) {
+            library.addSongToLibrary(ghost.getSongs().get(i));
+        }
+        journal.close();
+
+        journal = LibraryJournal.open(base, store);
+        library = journal.getLibrary();
+        library.removeSongFromLibrary(songTitled(library, "s4"));
+        library.rateSong(songTitled(library, "s3"), 4);
+        journal.close();
+
+        journal = LibraryJournal.open(base, store);
+        library = journal.getLibrary();
+        assertNull(songTitled(library, "s4"));
+        assertEquals(4, library.getRating(songTitled(library, "s3")));
+        journal.compact();
+        library.rateSong(songTitled(library, "s2"), 5);
+        journal.close();
+
+        library = LibraryJournal.open(base, store).getLibrary();
+        assertNotNull(songTitled(library, "s0"));
+        assertNull(songTitled(library, "s4"));
+        assertEquals(4, library.getRating(songTitled(library, "s3")));
+        assertEquals(5, library.getRating(songTitled(library, "s2")));
+        assertEquals(3, songTitled(library, "s3").getTrack());
+    }
+
+    private static Song songTitled(LibraryModel library, String title) {
+        for (Song song : library.getAllSongs()) {
+            if (song.getTitle().equals(title)) {
+                return song;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    void testTornTrailingRecordIsDropped(@TempDir Path dir) throws IOException {
+        String base = dir.resolve("library_u").toString();
+        LibraryJournal journal = LibraryJournal.open(base, store);
+        LibraryModel library = journal.getLibrary();
+        Song first = album.getSongs().get(0);
+        Song second = album.getSongs().get(1);
+        library.addSongToLibrary(first);
+        library.addSongToLibrary(second);
+        journal.close();
+
+        // Cut the last record short, as a crash during the append would
+        Path journalFile = dir.resolve("library_u.journal");
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        journal = LibraryJournal.open(base, store);
+        assertEquals(List.of(first), journal.getLibrary().getAllSongs());
+
+        // New records go after the last good one
+        journal.getLibrary().playSong(first);
+        journal.close();
+        LibraryModel reopened = LibraryJournal.open(base, store).getLibrary();
+        assertEquals(List.of(first), reopened.getAllSongs());
+        assertEquals(List.of(first), reopened.findPlaylistByName("Recent Plays").getSongs());
+    }
+
+    @Test
+    void testCompactionWritesSnapshotAndKeepsLaterChanges(@TempDir Path dir) throws IOException {
+        String base = dir.resolve("library_u").toString();
+        LibraryJournal journal = LibraryJournal.open(base, store);
+        LibraryModel library = journal.getLibrary();
+        Song first = album.getSongs().get(0);
+        library.addAlbumToLibrary(album);
+        journal.compact();
+        library.rateSong(first, 4);
+        assertEquals(1, journal.getRecordsSinceCompaction());
+        journal.close();
+
+        assertTrue(Files.exists(dir.resolve("library_u.lib")));
+        assertFalse(Files.exists(dir.resolve("library_u.journal.old")));
+        LibraryModel reopened = LibraryJournal.open(base, store).getLibrary();
+        assertEquals(library.getAllSongs(), reopened.getAllSongs());
+        assertEquals(List.of(first), reopened.findPlaylistByName("Top Rated").getSongs());
+    }
+
+    @Test
+    void testRecordThatFailsToApplyIsSkippedNotTruncated(@TempDir Path dir) throws IOException {
+        String base = dir.resolve("library_u").toString();
+        LibraryJournal journal = LibraryJournal.open(base, store);
+        Song first = album.getSongs().get(0);
+        journal.getLibrary().addSongToLibrary(first); // Records 1 (automatic playlists) and 2 (add)
+        journal.close();
+
+        Path journalFile = dir.resolve("library_u.journal");
+        appendRecord(journalFile, 3, RATE, null, 9); // Decodes, but 9 is not a rating
+        appendRecord(journalFile, 4, CREATE_PLAYLIST, "Later", 0);
+        long size = Files.size(journalFile);
+
+        LibraryModel reopened = LibraryJournal.open(base, store).getLibrary();
+        assertEquals(List.of(first), reopened.getAllSongs());
+        assertNotNull(reopened.findPlaylistByName("Later"));
+        assertEquals(size, Files.size(journalFile));
+    }
+
+    @Test
+    void testMissingRecordsFailTheLoad(@TempDir Path dir) throws IOException {
+        String base = dir.resolve("library_u").toString();
+        LibraryJournal journal = LibraryJournal.open(base, store);
+        journal.getLibrary().addSongToLibrary(album.getSongs().get(0));
+        journal.close();
+
+        Path journalFile = dir.resolve("library_u.journal");
+        appendRecord(journalFile, 7, CREATE_PLAYLIST, "Later", 0); // 3 to 6 are missing
+        long size = Files.size(journalFile);
+        assertThrows(IOException.class, () -> LibraryJournal.open(base, store));
+        assertEquals(size, Files.size(journalFile));
+    }
+
+    @Test
+    void testCorruptOldJournalFailsTheLoad(@TempDir Path dir) throws IOException {
+        String base = dir.resolve("library_u").toString();
+        LibraryJournal journal = LibraryJournal.open(base, store);
+        journal.getLibrary().addSongToLibrary(album.getSongs().get(0));
+        journal.getLibrary().addSongToLibrary(album.getSongs().get(1));
+        journal.close();
+
+        // An interrupted compaction leaves the old journal behind; damage its last record
+        Path oldJournal = dir.resolve("library_u.journal.old");
+        Files.move(dir.resolve("library_u.journal"), oldJournal);
+        byte[] bytes = Files.readAllBytes(oldJournal);
+        bytes[bytes.length - 6] ^= 1;
+        Files.write(oldJournal, bytes);
+        assertThrows(IOException.class, () -> LibraryJournal.open(base, store));
+        assertTrue(Files.exists(oldJournal));
+    }
+
+    @Test
+    void testOldJournalCutShortLosesOnlyItsLastRecord(@TempDir Path dir) throws IOException {
+        String base = dir.resolve("library_u").toString();
+        LibraryJournal journal = LibraryJournal.open(base, store);
+        journal.getLibrary().addSongToLibrary(album.getSongs().get(0));
+        journal.getLibrary().addSongToLibrary(album.getSongs().get(1));
+        journal.close();
+
+        // Renamed by a compaction but never forced: the power went before the last record reached the disk
+        Path oldJournal = dir.resolve("library_u.journal.old");
+        Files.move(dir.resolve("library_u.journal"), oldJournal);
+        byte[] bytes = Files.readAllBytes(oldJournal);
+        Files.write(oldJournal, Arrays.copyOf(bytes, bytes.length - 5));
+        LibraryJournal reopened = LibraryJournal.open(base, store);
+        assertEquals(List.of(album.getSongs().get(0)), reopened.getLibrary().getAllSongs());
+        reopened.close();
+        assertFalse(Files.exists(oldJournal));
+    }
+
+    // Appends a record without a song in LibraryJournal's format: length, body, CRC32 of the body.
+    private static void appendRecord(Path journalFile, long sequence, byte type, String playlist, int value)
+            throws IOException {
+        ByteBuffer body = ByteBuffer.allocate(64);
+        body.putLong(sequence).put(type);
+        if (playlist == null) {
+            body.putInt(-1);
+        } else {
+            byte[] name = playlist.getBytes(StandardCharsets.UTF_8);
+            body.putInt(name.length).put(name);
+        }
+        body.put((byte) 0).putInt(value);
+        CRC32 crc = new CRC32();
+        crc.update(body.array(), 0, body.position());
+        ByteBuffer record = ByteBuffer.allocate(body.position() + 8);
+        record.putInt(body.position()).put(body.array(), 0, body.position()).putInt((int) crc.getValue());
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            channel.write(ByteBuffer.wrap(record.array()));
+        }
+    }
+}
@@ -2,12 +2,22 @@ package test.model;
 
 import main.model.LibraryModel;
 import main.model.Playlist;
+import main.model.SortedSongs;
 import main.database.*;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class LibraryModelTest {
@@ -57,6 +67,49 @@ public class LibraryModelTest {
         assertEquals("My Playlist", libraryModel.getAllPlaylists().get(0).getName());
     }
 
+    @Test
+    void testCreatePlaylistRejectsAutomaticNames() {
+        assertFalse(libraryModel.createPlaylist("Favorite Songs"));
+        assertFalse(libraryModel.createPlaylist("Top Rated"));
+        assertFalse(libraryModel.createPlaylist("Recent Plays"));
+        assertFalse(libraryModel.createPlaylist("Top Plays"));
+        assertFalse(libraryModel.createPlaylist("Test Genre Playlist")); // A genre in the store
+        assertTrue(libraryModel.createPlaylist("Jazz Playlist"));
+        assertTrue(libraryModel.getAllPlaylists().stream().noneMatch(Playlist::isReadOnly));
+    }
+
+    @Test
+    void testAutomaticPlaylistsAreReadOnly() {
+        libraryModel.addSongToLibrary(song1);
+        libraryModel.rateSong(song1, 5);
+        Playlist favorites = libraryModel.findPlaylistByName("Favorite Songs");
+        assertTrue(favorites.isReadOnly());
+        assertThrows(UnsupportedOperationException.class, () -> favorites.addSong(song2));
+        assertThrows(UnsupportedOperationException.class, () -> favorites.removeSong(song1));
+        assertEquals(List.of(song1), libraryModel.findPlaylistByName("Favorite Songs").getSongs());
+    }
+
+    @Test
+    void testUserGenreNamedPlaylistSurvivesSerialization() throws Exception {
+        libraryModel.createPlaylist("Jazz Playlist");
+        Album jazzAlbum = new Album("Jazz Album", "Jazz Artist", "Jazz", 2020);
+        Song jazzSong = new Song("Jazz 1", jazzAlbum);
+        jazzAlbum.addSong(jazzSong);
+        libraryModel.addSongToLibrary(jazzSong);
+        libraryModel.addSongToPlaylist("Jazz Playlist", jazzSong);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(libraryModel);
+        }
+        LibraryModel loaded;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            loaded = (LibraryModel) in.readObject();
+        }
+        assertEquals(1, loaded.findPlaylistByName("Jazz Playlist").getSongs().size());
+        assertFalse(loaded.findPlaylistByName("Jazz Playlist").isReadOnly());
+    }
+
     @Test
     void testAddSongToPlaylist() {
         libraryModel.createPlaylist("My Playlist");
@@ -76,10 +129,55 @@ public class LibraryModelTest {
     void testRateSong_Valid() {
         libraryModel.addSongToLibrary(song1);
         libraryModel.rateSong(song1, 5);
-        assertEquals(5, song1.getRating());
+        assertEquals(5, libraryModel.getRating(song1));
         assertTrue(libraryModel.getFavoriteSongs().contains(song1));
     }
 
+    @Test
+    void testRatingsArePerLibrary() {
+        LibraryModel other = new LibraryModel(musicStore);
+        libraryModel.addSongToLibrary(song1);
+        other.addSongToLibrary(song1);
+        libraryModel.rateSong(song1, 5);
+        other.rateSong(song1, 2);
+
+        assertEquals(5, libraryModel.getRating(song1));
+        assertEquals(2, other.getRating(song1));
+        assertTrue(libraryModel.isFavorite(song1));
+        assertFalse(other.isFavorite(song1));
+        assertEquals(0, other.getRating(song2));
+        assertTrue(other.findPlaylistByName("Top Rated").getSongs().isEmpty());
+    }
+
+    @Test
+    void testRatingsFollowEqualCopiesOfTheSong() throws Exception {
+        Album big = new Album("Big Album", "Big Artist", "Test Genre", 2023);
+        for (int i = 0; i < 100; i++) {
+            Song song = new Song("Track " + i, big);
+            big.addSong(song);
+            musicStore.addSong(song);
+        }
+        musicStore.addAlbum(big);
+        for (int i = 0; i < 100; i++) {
+            libraryModel.rateSong(big.getSongs().get(i), i % 5 + 1);
+        }
+
+        // A serialized copy of the album has songs without store ids that equal the store's
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(big);
+        }
+        Album copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (Album) in.readObject();
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 5 + 1, libraryModel.getRating(copy.getSongs().get(i)));
+            assertEquals(i % 5 == 4, libraryModel.isFavorite(copy.getSongs().get(i)));
+        }
+        assertEquals(0, libraryModel.getRating(new Song("Track 1", big))); // Not one of the tracks
+    }
+
     @Test
     void testRateSong_Invalid() {
         libraryModel.addSongToLibrary(song1);
@@ -229,8 +327,8 @@ public class LibraryModelTest {
         libraryModel.rateSong(songHigh, 5);
 
         List<Song> sorted = libraryModel.getSongsSortedByRating();
-        assertEquals(2, sorted.get(0).getRating());
-        assertEquals(5, sorted.get(1).getRating());
+        assertEquals(2, libraryModel.getRating(sorted.get(0)));
+        assertEquals(5, libraryModel.getRating(sorted.get(1)));
     }
 
     @Test
@@ -313,4 +411,247 @@ public class LibraryModelTest {
             assertFalse(libraryModel.getAllSongs().contains(s));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testAddSongTwiceKeepsOneCopy() {
+        libraryModel.addSongToLibrary(song1);
+        libraryModel.addSongToLibrary(song1);
+        assertEquals(1, libraryModel.getAllSongs().size());
+        assertTrue(libraryModel.containsSong(song1));
+        assertFalse(libraryModel.containsSong(song2));
+    }
+
+    @Test
+    void testRemoveAlbumMatchesByTitleAndArtist() {
+        Album otherAlbum = new Album("Other Album", "Test Artist", "Test Genre", 2023);
+        Song otherSong = new Song("Other Song", otherAlbum);
+        otherAlbum.addSong(otherSong);
+        libraryModel.addAlbumToLibrary(testAlbum);
+        libraryModel.addAlbumToLibrary(otherAlbum);
+
+        libraryModel.removeAlbumFromLibrary(new Album("test album", "TEST ARTIST", "Test Genre", 2023));
+        assertEquals(1, libraryModel.getAllSongs().size());
+        assertTrue(libraryModel.containsSong(otherSong));
+        assertTrue(libraryModel.searchSongsByTitle("Song 1").isEmpty());
+    }
+
+    @Test
+    void testAddSongsToLibrary_SkipsSongsNotInStore() {
+        Song invalidSong = new Song("Invalid Song", testAlbum);
+        int added = libraryModel.addSongsToLibrary(List.of(song1, song2, invalidSong, song1));
+        assertEquals(2, added);
+        assertEquals(2, libraryModel.getAllSongs().size());
+        assertFalse(libraryModel.containsSong(invalidSong));
+    }
+
+    @Test
+    void testGenrePlaylistDroppedBelowThreshold() {
+        libraryModel = new LibraryModel(null);
+        libraryModel.enableTestMode();
+        Album rockAlbum = new Album("Rock Album", "Rock Artist", "Rock", 2020);
+        List<Song> rockSongs = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Song s = new Song("Rock " + i, rockAlbum);
+            rockAlbum.addSong(s);
+            rockSongs.add(s);
+            libraryModel.addSongToLibrary(s);
+        }
+        assertEquals(10, libraryModel.findPlaylistByName("Rock Playlist").getSongs().size());
+
+        libraryModel.removeSongFromLibrary(rockSongs.get(0));
+        assertNull(libraryModel.findPlaylistByName("Rock Playlist"));
+    }
+
+    // Random sequence of library changes; after every step the incrementally maintained
+    // automatic playlists must hold the same songs as a full recomputation.
+    @Test
+    void testIncrementalPlaylistsMatchFullRecompute() {
+        libraryModel = new LibraryModel(null);
+        libraryModel.enableTestMode();
+        String[] genres = {"Rock", "Jazz", "Pop"};
+        int[] sizes = {14, 11, 5};
+        List<Album> albums = new ArrayList<>();
+        List<Song> songs = new ArrayList<>();
+        for (int g = 0; g < genres.length; g++) {
+            for (int a = 0; a < 2; a++) {
+                Album album = new Album(genres[g] + " Album " + a, "Artist " + g, genres[g], 2000 + a);
+                for (int i = 0; i < sizes[g] / 2 + a; i++) {
+                    Song s = new Song(genres[g] + " " + a + " " + i, album);
+                    album.addSong(s);
+                    songs.add(s);
+                }
+                albums.add(album);
+            }
+        }
+
+        Random random = new Random(42);
+        for (int step = 0; step < 2000; step++) {
+            Song song = songs.get(random.nextInt(songs.size()));
+            switch (random.nextInt(6)) {
+                case 0:
+                case 1:
+                    libraryModel.addSongToLibrary(song);
+                    break;
+                case 2:
+                    libraryModel.removeSongFromLibrary(song);
+                    break;
+                case 3:
+                    libraryModel.rateSong(song, 1 + random.nextInt(5));
+                    break;
+                case 4:
+                    libraryModel.markSongAsFavorite(song);
+                    break;
+                default:
+                    Album album = albums.get(random.nextInt(albums.size()));
+                    if (random.nextBoolean()) {
+                        libraryModel.addAlbumToLibrary(album);
+                    } else {
+                        libraryModel.removeAlbumFromLibrary(album);
+                    }
+            }
+
+            Map<String, List<Song>> expected = expectedAutomaticPlaylists(libraryModel);
+            for (Map.Entry<String, List<Song>> entry : expected.entrySet()) {
+                Playlist actual = libraryModel.findPlaylistByName(entry.getKey());
+                assertNotNull(actual, "Missing playlist " + entry.getKey() + " at step " + step);
+                assertEquals(new HashSet<>(entry.getValue()), new HashSet<>(actual.getSongs()),
+                        entry.getKey() + " differs at step " + step);
+            }
+            for (String genre : genres) {
+                assertEquals(expected.containsKey(genre + " Playlist"),
+                        libraryModel.findPlaylistByName(genre + " Playlist") != null,
+                        genre + " Playlist existence differs at step " + step);
+            }
+        }
+    }
+
+    // The automatic playlists computed from scratch through the public getters: favorites, songs rated
+    // 4 or 5, and a playlist for each genre with at least 10 library songs.
+    private static Map<String, List<Song>> expectedAutomaticPlaylists(LibraryModel library) {
+        Map<String, List<Song>> expected = new HashMap<>();
+        List<Song> favorites = new ArrayList<>();
+        List<Song> topRated = new ArrayList<>();
+        Map<String, List<Song>> byGenre = new HashMap<>();
+        for (Song song : library.getAllSongs()) {
+            if (library.isFavorite(song)) {
+                favorites.add(song);
+            }
+            if (library.getRating(song) >= 4) {
+                topRated.add(song);
+            }
+            byGenre.computeIfAbsent(song.getAlbum().getGenre(), k -> new ArrayList<>()).add(song);
+        }
+        expected.put("Favorite Songs", favorites);
+        expected.put("Top Rated", topRated);
+        for (Map.Entry<String, List<Song>> genre : byGenre.entrySet()) {
+            if (genre.getValue().size() >= 10) {
+                expected.put(genre.getKey() + " Playlist", genre.getValue());
+            }
+        }
+        return expected;
+    }
+
+    @Test
+    void testAutomaticPlaylistRefreshesAfterChange() {
+        libraryModel.addSongToLibrary(song1);
+        libraryModel.addSongToLibrary(song2);
+        Playlist before = libraryModel.findPlaylistByName("Top Rated");
+        assertTrue(before.getSongs().isEmpty());
+        // Unchanged library reuses the same view
+        assertSame(before, libraryModel.findPlaylistByName("Top Rated"));
+
+        libraryModel.rateSong(song2, 4);
+        assertEquals(List.of(song2), libraryModel.findPlaylistByName("Top Rated").getSongs());
+        libraryModel.removeSongFromLibrary(song2);
+        assertTrue(libraryModel.findPlaylistByName("Top Rated").getSongs().isEmpty());
+    }
+
+    @Test
+    void testReadOnlyViewsAreSharedUntilChanged() {
+        libraryModel.addSongToLibrary(song1);
+        List<Song> songs = libraryModel.getAllSongs();
+        assertSame(songs, libraryModel.getAllSongs());
+        assertThrows(UnsupportedOperationException.class, () -> songs.add(song2));
+        assertThrows(UnsupportedOperationException.class, () -> testAlbum.getSongs().clear());
+
+        libraryModel.addSongToLibrary(song2);
+        assertEquals(List.of(song1, song2), libraryModel.getAllSongs());
+        assertEquals(List.of(song1), songs);
+
+        List<Playlist> playlists = libraryModel.getAllPlaylists();
+        assertSame(playlists, libraryModel.getAllPlaylists());
+        libraryModel.createPlaylist("Later");
+        assertEquals(playlists.size() + 1, libraryModel.getAllPlaylists().size());
+    }
+
+    @Test
+    void testSortedOrdersMatchFullSortAndPaginate() {
+        libraryModel = new LibraryModel(null);
+        libraryModel.enableTestMode();
+        List<Album> albums = new ArrayList<>();
+        for (String artist : new String[] {"beta", "Alpha", "gamma"}) {
+            albums.add(new Album("Album " + artist, artist, "Pop", 2020));
+        }
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 60; i++) {
+            songs.add(new Song((i % 2 == 0 ? "track " : "Track ") + (i % 7), albums.get(i % 3)));
+        }
+        Random random = new Random(11);
+        for (int step = 0; step < 500; step++) {
+            Song song = songs.get(random.nextInt(songs.size()));
+            int action = random.nextInt(3);
+            if (action == 0) {
+                libraryModel.addSongToLibrary(song);
+            } else if (action == 1) {
+                libraryModel.removeSongFromLibrary(song);
+            } else {
+                libraryModel.rateSong(song, 1 + random.nextInt(4));
+            }
+        }
+
+        List<Song> byTitle = new ArrayList<>(libraryModel.getAllSongs());
+        byTitle.sort(Comparator.comparing(Song::getTitle, String.CASE_INSENSITIVE_ORDER));
+        List<Song> byArtist = new ArrayList<>(libraryModel.getAllSongs());
+        byArtist.sort(Comparator.comparing(s -> s.getAlbum().getArtist(), String.CASE_INSENSITIVE_ORDER));
+        List<Song> byRating = new ArrayList<>(libraryModel.getAllSongs());
+        byRating.sort(Comparator.comparingInt(libraryModel::getRating));
+        assertEquals(byTitle, libraryModel.getSongsSortedByTitle());
+        assertEquals(byArtist, libraryModel.getSongsSortedByArtist());
+        assertEquals(byRating, libraryModel.getSongsSortedByRating());
+
+        List<Song> paged = new ArrayList<>();
+        SortedSongs.Cursor cursor = null;
+        do {
+            SortedSongs.Page page = libraryModel.getSongsSorted(SortedSongs.Order.RATING, cursor, 7);
+            paged.addAll(page.getSongs());
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        assertEquals(byRating, paged);
+    }
+
+    @Test
+    void testTopPlaysMatchesFullSort() {
+        Album album = new Album("Play Album", "Play Artist", "Pop", 2023);
+        List<Song> songs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            songs.add(new Song("Play " + i, album));
+        }
+        Map<Song, Integer> counts = new HashMap<>();
+        Random random = new Random(7);
+        for (int play = 0; play < 3000; play++) {
+            // Skewed towards low indexes so the ranking keeps changing
+            Song song = songs.get((int) Math.min(49, Math.abs(random.nextGaussian()) * 15));
+            libraryModel.playSong(song);
+            counts.merge(song, 1, Integer::sum);
+
+            List<Integer> expected = new ArrayList<>(counts.values());
+            expected.sort(Comparator.reverseOrder());
+            expected = expected.subList(0, Math.min(10, expected.size()));
+            List<Integer> actual = new ArrayList<>();
+            for (Song s : libraryModel.findPlaylistByName("Top Plays").getSongs()) {
+                actual.add(counts.get(s));
+            }
+            assertEquals(expected, actual, "Top Plays differs after play " + play);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package test.model;
+
+import main.database.Album;
+import main.database.MusicStore;
+import main.model.LibraryJournal;
+import main.model.LibraryModel;
+import main.model.PersistenceService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PersistenceServiceTest {
+    private MusicStore store;
+    private Album album;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new MusicStore();
+        store.loadAllAlbums("src/test/albums/albums.txt");
+        album = store.getAllAlbums().get(0);
+    }
+
+    @Test
+    void testChangesAreCoalescedUntilFlush(@TempDir Path dir) throws IOException {
+        PersistenceService service = new PersistenceService(60_000, 4);
+        LibraryJournal journal = LibraryJournal.open(dir.resolve("library_u").toString(), store);
+        journal.setPersistence(service);
+        LibraryModel library = journal.getLibrary();
+        library.addAlbumToLibrary(album);
+        library.playSong(album.getSongs().get(0));
+        library.markSongAsFavorite(album.getSongs().get(1));
+        assertEquals(1, service.getQueueDepth());
+
+        service.flush();
+        assertEquals(0, service.getQueueDepth());
+        assertEquals(1, service.getFlushCount());
+        assertEquals(0, service.getFailureCount());
+        service.close();
+        journal.close();
+
+        LibraryModel reopened = LibraryJournal.open(dir.resolve("library_u").toString(), store).getLibrary();
+        assertEquals(library.getAllSongs(), reopened.getAllSongs());
+        assertEquals(library.getFavoriteSongs(), reopened.getFavoriteSongs());
+    }
+
+    @Test
+    void testQueueDrainsInBatchesInTheBackground(@TempDir Path dir) throws Exception {
+        PersistenceService service = new PersistenceService(5, 2);
+        for (int i = 0; i < 5; i++) {
+            // Queued after the change: one add writes two records, and a flush between them would count twice
+            LibraryJournal journal = LibraryJournal.open(dir.resolve("library_" + i).toString(), store);
+            journal.getLibrary().addSongToLibrary(album.getSongs().get(i));
+            service.markDirty(journal);
+        }
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (service.getFlushCount() < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, service.getQueueDepth());
+        assertEquals(5, service.getFlushCount());
+        assertTrue(service.getMaxFlushMillis() >= service.getAverageFlushMillis());
+        service.close();
+    }
+}
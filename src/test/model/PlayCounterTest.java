@@ -0,0 +1,138 @@
+package test.model;
+
+import main.model.PlayCounter;
+import main.database.Song;
+import main.database.Album;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PlayCounterTest {
+    private Album album;
+    private Song song1;
+    private Song song2;
+    private Song song3;
+
+    @BeforeEach
+    void setUp() {
+        album = new Album("Counter Album", "Counter Artist", "Pop", 2023);
+        song1 = new Song("Track 1", album);
+        song2 = new Song("Track 2", album);
+        song3 = new Song("Track 3", album);
+    }
+
+    @Test
+    public void testIncrementAndCount() {
+        PlayCounter counter = new PlayCounter(3);
+
+        assertEquals(1, counter.increment(song1));
+        assertEquals(2, counter.increment(song1));
+        assertEquals(2, counter.getCount(song1));
+        assertEquals(0, counter.getCount(song2));
+        assertEquals(1, counter.size());
+    }
+
+    @Test
+    public void testTopSongsRankedWithTiesByFirstToReachCount() {
+        PlayCounter counter = new PlayCounter(2);
+
+        counter.increment(song1);
+        counter.increment(song2);
+        counter.increment(song3);
+        assertEquals(List.of(song1, song2), counter.topSongs());
+
+        counter.increment(song3);
+        assertEquals(List.of(song3, song1), counter.topSongs());
+    }
+
+    @Test
+    public void testCountRangeAndMap() {
+        PlayCounter counter = new PlayCounter(10);
+        counter.add(song1, 1);
+        counter.add(song2, 2);
+        counter.add(song3, 3);
+
+        assertEquals(List.of(song2, song3), counter.songsWithCountBetween(2, 5));
+        Map<Song, Integer> map = counter.toMap();
+        assertEquals(3, (int) map.get(song3));
+        assertEquals(List.of(song3, song2, song1), counter.topSongs());
+    }
+
+    @Test
+    public void testTopSongsMatchAFullSort() {
+        PlayCounter counter = new PlayCounter(10);
+        List<Song> songs = new ArrayList<>();
+        int[] counts = new int[300];
+        long[] lastPlayed = new long[300];
+        for (int i = 0; i < counts.length; i++) {
+            songs.add(new Song("Track " + i, album));
+        }
+        Random random = new Random(42);
+        for (int play = 1; play <= 20_000; play++) {
+            // Skewed, so some songs climb into the top and others are overtaken
+            int i = Math.min(random.nextInt(counts.length), random.nextInt(counts.length));
+            int plays = play % 97 == 0 ? 1 + random.nextInt(20) : 1;
+            counter.add(songs.get(i), plays);
+            counts[i] += plays;
+            lastPlayed[i] = play;
+            if (play % 500 == 0) {
+                List<Integer> expected = new ArrayList<>();
+                for (int j = 0; j < counts.length; j++) {
+                    if (counts[j] > 0) {
+                        expected.add(j);
+                    }
+                }
+                expected.sort((a, b) -> counts[a] != counts[b] ? counts[b] - counts[a] : Long.compare(lastPlayed[a], lastPlayed[b]));
+                List<Song> top = new ArrayList<>();
+                for (int j : expected.subList(0, Math.min(10, expected.size()))) {
+                    top.add(songs.get(j));
+                }
+                assertEquals(top, counter.topSongs());
+            }
+        }
+    }
+
+    @Test
+    public void testAddRejectsNonPositivePlays() {
+        PlayCounter counter = new PlayCounter(2);
+        assertThrows(IllegalArgumentException.class, () -> counter.add(song1, 0));
+        assertThrows(IllegalArgumentException.class, () -> counter.add(song1, -3));
+        assertEquals(0, counter.size());
+        assertTrue(counter.topSongs().isEmpty());
+    }
+
+    // Replaying plays of songs that already have a slot should not allocate (no boxed counters).
+    @Test
+    public void testRepeatPlaysDoNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return; // Allocation counters are not available on this JVM
+        }
+        com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+        if (!allocation.isThreadAllocatedMemorySupported() || !allocation.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        PlayCounter counter = new PlayCounter(10);
+        List<Song> played = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Song song = new Song("Track " + i, album);
+            played.add(song);
+            counter.increment(song);
+        }
+        long before = allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 200_000; i++) {
+            counter.increment(played.get((i * 7919) % played.size()));
+        }
+        long allocated = allocation.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertTrue(allocated < 1_000_000, "allocated " + allocated + " bytes");
+        assertEquals(41, counter.getCount(played.get(0)));
+    }
+}
@@ -72,4 +72,37 @@ public class PlaylistTest {
         assertTrue(shuffled.contains(s2));
         assertTrue(shuffled.contains(s3));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAddSongIgnoresDuplicates() {
+        Playlist playlist = new Playlist("My Playlist");
+        Album album = new Album("Test Album", "Test Artist", "Test Genre", 2023);
+        Song song = new Song("Test Song", album);
+
+        playlist.addSong(song);
+        playlist.addSong(song);
+        assertEquals(1, playlist.size());
+        assertTrue(playlist.containsSong(song));
+        assertFalse(playlist.addSong(0, song));
+    }
+
+    @Test
+    public void testPositionalInsertRemoveAndMove() {
+        Playlist playlist = new Playlist("Order Test");
+        Album album = new Album("Order Album", "Order Artist", "Genre", 2023);
+        Song s1 = new Song("Song 1", album);
+        Song s2 = new Song("Song 2", album);
+        Song s3 = new Song("Song 3", album);
+        playlist.addSong(s1);
+        playlist.addSong(s3);
+        assertTrue(playlist.addSong(1, s2));
+        assertEquals(List.of(s1, s2, s3), playlist.getSongs());
+
+        playlist.moveSong(0, 2);
+        assertEquals(List.of(s2, s3, s1), playlist.getSongs());
+
+        assertEquals(s3, playlist.removeSongAt(1));
+        assertEquals(List.of(s2, s1), playlist.getSongs());
+        assertThrows(IndexOutOfBoundsException.class, () -> playlist.removeSongAt(2));
+    }
+}
@@ -0,0 +1,71 @@
+package test.model;
+
+import main.model.ShuffleIterator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShuffleIteratorTest {
+    private List<Integer> numbers; // 0 to 999
+
+    @BeforeEach
+    void setUp() {
+        numbers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            numbers.add(i);
+        }
+    }
+
+    private List<Integer> drain(Iterable<Integer> iterable) {
+        List<Integer> drawn = new ArrayList<>();
+        for (Integer i : iterable) {
+            drawn.add(i);
+        }
+        return drawn;
+    }
+
+    @Test
+    public void testVisitsEveryItemOnce() {
+        List<Integer> drawn = drain(ShuffleIterator.shuffled(numbers, 3));
+        assertEquals(1000, drawn.size());
+        assertEquals(new HashSet<>(numbers), new HashSet<>(drawn));
+        assertNotEquals(numbers, drawn);
+    }
+
+    @Test
+    public void testSameSeedSameOrder() {
+        List<Integer> fifty = numbers.subList(0, 50);
+        Iterable<Integer> shuffled = ShuffleIterator.shuffled(fifty, 42);
+        assertEquals(drain(shuffled), drain(shuffled));
+        assertEquals(drain(shuffled), drain(ShuffleIterator.shuffled(fifty, 42)));
+    }
+
+    @Test
+    public void testExhaustedIteratorThrows() {
+        Iterator<Integer> it = new ShuffleIterator<>(numbers.subList(0, 1), new Random(1));
+        assertEquals(0, (int) it.next());
+        assertFalse(it.hasNext());
+        assertThrows(NoSuchElementException.class, it::next);
+    }
+
+    @Test
+    public void testFirstPickIsRoughlyUniform() {
+        List<Integer> four = numbers.subList(0, 4);
+        int[] firsts = new int[4];
+        Random random = new Random(5);
+        for (int trial = 0; trial < 4000; trial++) {
+            firsts[new ShuffleIterator<>(four, random).next()]++;
+        }
+        for (int count : firsts) {
+            assertTrue(count > 850 && count < 1150, "first pick counts " + count);
+        }
+    }
+}